@@ -45,6 +45,20 @@ public abstract class AbstractUsbServices implements UsbServices
      */
     public synchronized void removeUsbServicesListener( UsbServicesListener l ) { usbServicesEventHelper.removeEventListener( l ); }
 
+	/**
+	 * Get the dispatch metrics of the UsbServicesListeners.
+	 * <p>
+	 * Metrics are only recorded if {@link #setListenerMetricsEnabled(boolean) enabled}.
+	 * @return A List of {@link com.ibm.jusb.util.ListenerMetrics ListenerMetrics}.
+	 */
+	public java.util.List getListenerMetrics() { return usbServicesEventHelper.getListenerMetrics(); }
+
+	/**
+	 * Set if the dispatch metrics of the UsbServicesListeners are recorded.
+	 * @param enabled If metrics should be recorded.
+	 */
+	public void setListenerMetricsEnabled( boolean enabled ) { usbServicesEventHelper.setMetricsEnabled( enabled ); }
+
 	/** @return the RequestFactory used to create Request object for the USB operations */ 
 	public RequestFactory getRequestFactory() { return requestFactory; }
 
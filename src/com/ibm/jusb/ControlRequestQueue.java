@@ -0,0 +1,419 @@
+package com.ibm.jusb;
+
+/**
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.util.*;
+
+import javax.usb.*;
+
+import com.ibm.jusb.os.*;
+
+/**
+ * Queue of a UsbDevice's control Requests.
+ * <p>
+ * This keeps one RequestImp in progress on the device's default control pipe at a time,
+ * submitting the next when the current one {@link #requestImpCompleted(RequestImp) completes}.
+ * A List of RequestImps, such as a RequestBundle, is kept together; no other RequestImp is
+ * submitted until all of the List has completed.  Its RequestImps are submitted one at a time,
+ * each after the previous one completes, unless the platform
+ * {@link com.ibm.jusb.os.UsbDeviceOsImp#isRequestPipeliningSupported() supports pipelining}, in which
+ * case the List is submitted at once using
+ * {@link com.ibm.jusb.os.UsbDeviceOsImp#asyncSubmit(List) asyncSubmit(List)}.
+ * Nothing is locked while a RequestImp is
+ * in progress, so adding to the queue never waits for other Requests; synchronous callers
+ * wait for their own RequestImp to complete.
+ * <p>
+ * Only one Thread at a time submits RequestImps; it keeps submitting until there is nothing more
+ * to submit.  A completion on another Thread, or one that happens during a submission (as a
+ * platform completing synchronously does), only makes the next entry pending for that Thread,
+ * so completions never recurse into submissions.
+ * <p>
+ * Entries are linked through themselves, and each RequestImp keeps the entry it is queued with,
+ * so submitting a single RequestImp allocates nothing.
+ * <p>
+ * A RequestImp that is submitted immediately and is not accepted by the platform causes
+ * {@link #submit(RequestImp) submit} to throw the UsbException.  A queued RequestImp that is not
+ * accepted when its turn comes is completed with the UsbException instead; if it is part of
+ * a List submitted one at a time, the rest of the List is still submitted.
+ * <p>
+ * This class is Thread-safe.
+ * @author Dan Streetman
+ */
+public class ControlRequestQueue
+{
+	/**
+	 * Constructor.
+	 * @param device The UsbDeviceImp.
+	 */
+	public ControlRequestQueue( UsbDeviceImp device ) { usbDeviceImp = device; }
+
+	//**************************************************************************
+	// Public methods
+
+	/**
+	 * Submit a RequestImp.
+	 * <p>
+	 * If nothing is in progress, the RequestImp is submitted on the calling Thread;
+	 * otherwise it is queued.  The RequestImp must not already be queued or in progress,
+	 * as its entry is reused.
+	 * @param requestImp The RequestImp.
+	 * @throws UsbException If the RequestImp was submitted immediately and not accepted.
+	 */
+	public void submit( RequestImp requestImp ) throws UsbException
+	{
+		Entry entry = requestImp.getControlRequestQueueEntry();
+
+		entry.reset();
+
+		synchronized ( lock ) {
+			if (null != current) {
+				enqueue( entry );
+				return;
+			}
+
+			current = entry;
+
+			if (draining) {
+				pendingEntry = entry;
+				return;
+			}
+
+			draining = true;
+		}
+
+		try {
+			getUsbDeviceOsImp().asyncSubmit( requestImp );
+		} catch ( UsbException uE ) {
+			Entry next = null;
+
+			synchronized ( lock ) {
+				next = advance();
+			}
+
+			submitEntry( next );
+
+			throw uE;
+		}
+
+		submitEntry( null );
+	}
+
+	/**
+	 * Submit a List of RequestImps.
+	 * <p>
+	 * The RequestImps are submitted in order, with no others in between.
+	 * RequestImps that are not accepted are completed with the UsbException.
+	 * @param list The List of RequestImps.
+	 */
+	public void submit( List list ) { submit( list, null ); }
+
+	/**
+	 * Submit a List of RequestImps.
+	 * <p>
+	 * The RequestImps are submitted in order, with no others in between.
+	 * RequestImps that are not accepted are completed with the UsbException.
+	 * @param list The List of RequestImps.
+	 * @param result The RequestBundleSubmitResult to complete when all have completed, or null.
+	 */
+	public void submit( List list, RequestBundleSubmitResult result )
+	{
+		if (list.isEmpty()) {
+			if (null != result)
+				result.complete();
+			return;
+		}
+
+		Entry entry = new Entry( list, result, getUsbDeviceOsImp().isRequestPipeliningSupported() );
+
+		synchronized ( lock ) {
+			if (null != current) {
+				enqueue( entry );
+				return;
+			}
+
+			current = entry;
+
+			if (draining) {
+				pendingEntry = entry;
+				return;
+			}
+
+			draining = true;
+		}
+
+		submitEntry( entry );
+	}
+
+	/**
+	 * Indicate a RequestImp completed.
+	 * <p>
+	 * If it is the RequestImp in progress, the next RequestImp (of the same List, if it is
+	 * submitted one at a time) is submitted; if another
+	 * Thread is submitting, or this is called during a submission, it is left pending for that
+	 * Thread to submit.
+	 * @param requestImp The RequestImp.
+	 */
+	public void requestImpCompleted( RequestImp requestImp )
+	{
+		Entry done = null;
+		Entry next = null;
+
+		synchronized ( lock ) {
+			if (null == current || !current.contains( requestImp ))
+				return;
+
+			if (current.requestImpCompleted()) {
+				done = current;
+				next = advance();
+			} else if (current.isSubmitPending()) {
+				next = current;
+			} else {
+				return;
+			}
+
+			if (draining) {
+				pendingEntry = next;
+				next = null;
+			} else if (null != next) {
+				draining = true;
+			}
+		}
+
+		if (null != done)
+			done.complete();
+
+		if (null != next)
+			submitEntry( next );
+	}
+
+	/** @return The number of RequestImps queued or in progress. */
+	public int getSize()
+	{
+		synchronized ( lock ) {
+			int size = null == current ? 0 : current.getRemaining();
+
+			for (Entry entry = head; null != entry; entry = entry.next)
+				size += entry.getRemaining();
+
+			return size;
+		}
+	}
+
+	//**************************************************************************
+	// Protected methods
+
+	/** @return The UsbDeviceOsImp. */
+	protected UsbDeviceOsImp getUsbDeviceOsImp() { return usbDeviceImp.getUsbDeviceOsImp(); }
+
+	/**
+	 * Submit the current entry, and then any entries left pending, until there are none.
+	 * <p>
+	 * RequestImps that are not accepted are completed with the UsbException,
+	 * and the following RequestImps are submitted.  A List submitted one at a time
+	 * is submitted again, for its next RequestImp, when each RequestImp completes.
+	 * The calling Thread must have set
+	 * draining; it is cleared when this returns.
+	 * @param entry The current entry, or null to only submit pending entries.
+	 */
+	protected void submitEntry( Entry entry )
+	{
+		while (true) {
+			while (null != entry) {
+				try {
+					entry.submit( getUsbDeviceOsImp() );
+					entry = null;
+				} catch ( UsbException uE ) {
+					RequestImp requestImp = entry.getSubmittedRequestImp();
+
+					/* The platform completes the RequestImps of a List it did not accept. */
+					if (null == requestImp) {
+						entry = null;
+						continue;
+					}
+
+					requestImp.setUsbException( uE );
+
+					/* Completing one of a List leaves the rest of the List, or the next entry, pending. */
+					if (null == entry.getRequestImp()) {
+						entry = null;
+					} else {
+						synchronized ( lock ) {
+							entry = advance();
+						}
+					}
+
+					requestImp.complete();
+				}
+			}
+
+			synchronized ( lock ) {
+				entry = pendingEntry;
+				pendingEntry = null;
+
+				if (null == entry) {
+					draining = false;
+					return;
+				}
+			}
+		}
+	}
+
+	//**************************************************************************
+	// Private methods
+
+	/**
+	 * Add an entry to the end of the queue.
+	 * <p>
+	 * The caller must hold the lock.
+	 * @param entry The entry.
+	 */
+	private void enqueue( Entry entry )
+	{
+		if (null == tail)
+			head = entry;
+		else
+			tail.next = entry;
+
+		tail = entry;
+	}
+
+	/**
+	 * Move to the next entry.
+	 * <p>
+	 * The caller must hold the lock.
+	 * @return The new current entry, or null if the queue is idle.
+	 */
+	private Entry advance()
+	{
+		current = head;
+
+		if (null != current) {
+			head = current.next;
+			current.next = null;
+
+			if (null == head)
+				tail = null;
+		}
+
+		return current;
+	}
+
+	//**************************************************************************
+	// Instance variables
+
+	private UsbDeviceImp usbDeviceImp = null;
+
+	private Object lock = new Object();
+	private Entry head = null;
+	private Entry tail = null;
+	private Entry current = null;
+	private Entry pendingEntry = null;
+	private boolean draining = false;
+
+	//**************************************************************************
+	// Inner classes
+
+	/**
+	 * A RequestImp, or a List of RequestImps kept together.
+	 * <p>
+	 * The entry of a single RequestImp belongs to it, and is {@link #reset() reset}
+	 * for each submission.
+	 */
+	protected static class Entry
+	{
+		public Entry( RequestImp requestImp )
+		{
+			single = requestImp;
+			remaining = 1;
+		}
+
+		public Entry( List list, RequestBundleSubmitResult result, boolean pipelined )
+		{
+			requestImps = list;
+			submitResult = result;
+			remaining = list.size();
+			nextIndex = pipelined ? -1 : 0;
+		}
+
+		/** @return The single RequestImp, or null if this is a List. */
+		public RequestImp getRequestImp() { return single; }
+
+		/** Reset this for another submission of its single RequestImp. */
+		public void reset()
+		{
+			remaining = 1;
+			next = null;
+		}
+
+		/**
+		 * @return The RequestImp last submitted, or null if this is a List submitted at once.
+		 */
+		public RequestImp getSubmittedRequestImp()
+		{
+			if (null != single)
+				return single;
+
+			return 0 < nextIndex ? (RequestImp)requestImps.get(nextIndex - 1) : null;
+		}
+
+		/** @return If this is a List submitted one at a time, with RequestImps not yet submitted. */
+		public boolean isSubmitPending() { return 0 <= nextIndex && nextIndex < requestImps.size(); }
+
+		/**
+		 * Submit this entry.
+		 * <p>
+		 * A List submitted one at a time submits its next RequestImp.
+		 * @param osImp The UsbDeviceOsImp.
+		 * @throws UsbException If not accepted.
+		 */
+		public void submit( UsbDeviceOsImp osImp ) throws UsbException
+		{
+			if (null != single)
+				osImp.asyncSubmit( single );
+			else if (0 > nextIndex)
+				osImp.asyncSubmit( requestImps );
+			else
+				osImp.asyncSubmit( (RequestImp)requestImps.get(nextIndex++) );
+		}
+
+		/**
+		 * @param requestImp The RequestImp.
+		 * @return If the RequestImp is part of this entry.
+		 */
+		public boolean contains( RequestImp requestImp )
+		{
+			return requestImp == single || (null != requestImps && requestImps.contains( requestImp ));
+		}
+
+		/**
+		 * Count one RequestImp as completed.
+		 * @return If all RequestImps have completed.
+		 */
+		public boolean requestImpCompleted() { return 0 == --remaining; }
+
+		/** @return The number of RequestImps not yet completed. */
+		public int getRemaining() { return remaining; }
+
+		/** Complete the RequestBundleSubmitResult, if any. */
+		public void complete()
+		{
+			if (null != submitResult)
+				submitResult.complete();
+		}
+
+		private RequestImp single = null;
+		private List requestImps = null;
+		private RequestBundleSubmitResult submitResult = null;
+		private int remaining = 0;
+		private int nextIndex = -1;
+		private Entry next = null;
+	}
+
+}
@@ -0,0 +1,140 @@
+package com.ibm.jusb;
+
+/**
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import javax.usb.*;
+
+/**
+ * A control Request prepared for repeated submission.
+ * <p>
+ * The bmRequestType, bRequest, wValue and wIndex are fixed when this is
+ * {@link com.ibm.jusb.UsbOperationsImp#prepareVendorRequest(byte,byte,short,short,int) prepared},
+ * the request type is validated once, and the {@link #getSetupPacket() setup packet}
+ * is encoded once.  The {@link #getData() data buffer} is preallocated; its length is the wLength.
+ * For each submission the caller fills in (OUT) or reads (IN) the data buffer;
+ * the same RequestImp, and its {@link com.ibm.jusb.ControlRequestQueue ControlRequestQueue} entry,
+ * is reused, so submitting allocates nothing.
+ * <p>
+ * Whether this is an interface request is also determined once; only an interface request
+ * has its interface's claim checked at each submission.
+ * <p>
+ * Only one submission may be in progress at a time.
+ * @author Dan Streetman
+ */
+public class PreparedRequest
+{
+	/**
+	 * Constructor.
+	 * @param operations The UsbOperationsImp to submit to.
+	 * @param requestImp The RequestImp to reuse.
+	 */
+	public PreparedRequest( UsbOperationsImp operations, RequestImp requestImp )
+	{
+		usbOperationsImp = operations;
+		this.requestImp = requestImp;
+
+		/* Encode the setup packet now, not on the first submission. */
+		requestImp.getSetupPacket();
+
+		interfaceRequest = requestImp.isInterfaceRequest();
+		interfaceNumber = (byte)requestImp.getIndex();
+	}
+
+	//**************************************************************************
+	// Public methods
+
+	/** @return The UsbOperationsImp. */
+	public UsbOperationsImp getUsbOperationsImp() { return usbOperationsImp; }
+
+	/** @return The RequestImp that is submitted. */
+	public RequestImp getRequestImp() { return requestImp; }
+
+	/** @return The data buffer; it must not be replaced, only its contents changed. */
+	public byte[] getData() { return requestImp.getData(); }
+
+	/** @return The 8-byte setup packet; it must not be modified. */
+	public byte[] getSetupPacket() { return requestImp.getSetupPacket(); }
+
+	/**
+	 * Synchronously submit this.
+	 * @return The number of data bytes transferred.
+	 * @exception javax.usb.RequestException If the submission fails, or a submission is already in progress.
+	 */
+	public int syncSubmit() throws RequestException
+	{
+		prepareSubmission();
+
+		try {
+			checkInterfaceClaimed();
+			getUsbOperationsImp().syncSubmitRequestImp( requestImp );
+		} finally {
+			submissionDone();
+		}
+
+		return requestImp.getDataLength();
+	}
+
+	/**
+	 * Asynchronously submit this.
+	 * @return The SubmitResult, which is the RequestImp.
+	 * @exception javax.usb.RequestException If the submission fails, or a submission is already in progress.
+	 */
+	public UsbOperations.SubmitResult asyncSubmit() throws RequestException
+	{
+		prepareSubmission();
+
+		try {
+			checkInterfaceClaimed();
+			return getUsbOperationsImp().asyncSubmitRequestImp( requestImp, null );
+		} finally {
+			submissionDone();
+		}
+	}
+
+	//**************************************************************************
+	// Protected methods
+
+	/**
+	 * Reset the RequestImp's result from the previous submission.
+	 * @exception javax.usb.RequestException If a submission is already in progress.
+	 */
+	protected synchronized void prepareSubmission() throws RequestException
+	{
+		if (submitting || requestImp.isInProgress())
+			throw new RequestException("PreparedRequest is already in progress");
+
+		submitting = true;
+		requestImp.resetSubmission();
+		requestImp.setUsbDeviceImp( null );
+	}
+
+	/** The RequestImp has been handed to the UsbOperationsImp, or was not accepted. */
+	protected synchronized void submissionDone() { submitting = false; }
+
+	/**
+	 * Check the interface is claimed, if this is an interface request.
+	 * @exception javax.usb.RequestException If the interface is not claimed.
+	 */
+	protected void checkInterfaceClaimed() throws RequestException
+	{
+		if (interfaceRequest)
+			getUsbOperationsImp().checkInterfaceClaimed( interfaceNumber );
+	}
+
+	//**************************************************************************
+	// Instance variables
+
+	private UsbOperationsImp usbOperationsImp = null;
+	private RequestImp requestImp = null;
+	private boolean submitting = false;
+	private boolean interfaceRequest = false;
+	private byte interfaceNumber = 0;
+
+}
@@ -0,0 +1,125 @@
+package com.ibm.jusb;
+
+/**
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.util.*;
+
+import javax.usb.*;
+
+import com.ibm.jusb.util.*;
+
+/**
+ * Result of an asynchronous RequestBundle submission.
+ * <p>
+ * This completes once every Request in the bundle has completed.  Each Request's
+ * own result is set on it as usual; this reports the first UsbException, if any.
+ * @author Dan Streetman
+ */
+public class RequestBundleSubmitResult
+{
+	/**
+	 * Constructor.
+	 * @param bundle The RequestBundle.
+	 * @param list The List of RequestImps submitted for the bundle.
+	 */
+	public RequestBundleSubmitResult( RequestBundle bundle, List list )
+	{
+		requestBundle = bundle;
+		requestImps = Collections.unmodifiableList( list );
+	}
+
+	//**************************************************************************
+	// Public methods
+
+	/** @return The RequestBundle. */
+	public RequestBundle getRequestBundle() { return requestBundle; }
+
+	/** @return The List of RequestImps submitted for the bundle. */
+	public List getRequestImps() { return requestImps; }
+
+	/** @return If all Requests have completed. */
+	public boolean isCompleted()
+	{
+		if (!completionWaiter.isCompleted())
+			return false;
+
+		for (int i=0; i<requestImps.size(); i++)
+			if (!((RequestImp)requestImps.get(i)).isCompleted())
+				return false;
+
+		return true;
+	}
+
+	/** Wait until all Requests have completed. */
+	public void waitUntilCompleted() { waitUntilCompleted(0); }
+
+	/**
+	 * Wait until all Requests have completed, or the timeout expires.
+	 * <p>
+	 * If the timeout is 0, this waits forever.
+	 * <p>
+	 * This is completed when the last Request's UsbDeviceImp is notified, slightly before
+	 * that Request is itself set completed, so this also waits for each Request.
+	 * @param msecs The number of milliseconds to wait.
+	 */
+	public void waitUntilCompleted( long msecs )
+	{
+		long end = System.currentTimeMillis() + msecs;
+
+		if (!completionWaiter.waitUntilCompleted( msecs, 0 ))
+			return;
+
+		for (int i=0; i<requestImps.size(); i++) {
+			RequestImp requestImp = (RequestImp)requestImps.get(i);
+
+			if (requestImp.isCompleted())
+				continue;
+
+			long remaining = end - System.currentTimeMillis();
+
+			if (0 == msecs)
+				requestImp.waitUntilCompleted();
+			else if (0 < remaining)
+				requestImp.waitUntilCompleted( remaining );
+			else
+				return;
+		}
+	}
+
+	/** @return If any Request completed with a UsbException. */
+	public boolean isUsbException() { return null != getUsbException(); }
+
+	/**
+	 * Get the first UsbException.
+	 * @return The UsbException of the first Request that failed, or null.
+	 */
+	public UsbException getUsbException()
+	{
+		for (int i=0; i<requestImps.size(); i++) {
+			RequestImp requestImp = (RequestImp)requestImps.get(i);
+
+			if (requestImp.isCompleted() && requestImp.isUsbException())
+				return requestImp.getUsbException();
+		}
+
+		return null;
+	}
+
+	/** Set this as completed and wake waiting Threads. */
+	public void complete() { completionWaiter.complete(); }
+
+	//**************************************************************************
+	// Instance variables
+
+	private RequestBundle requestBundle = null;
+	private List requestImps = null;
+	private CompletionWaiter completionWaiter = new CompletionWaiter();
+
+}
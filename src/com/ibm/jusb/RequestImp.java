@@ -9,9 +9,13 @@ package com.ibm.jusb;
  * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
  */
 
+import java.nio.*;
+
 import javax.usb.*;
+import javax.usb.util.*;
 
 import com.ibm.jusb.os.*;
+import com.ibm.jusb.util.*;
 
 /**
  * Request implementation.
@@ -45,12 +49,23 @@ import com.ibm.jusb.os.*;
  * {@link javax.usb.Request#setDataLength(int) data length} are copied
  * to the original Request, and the original Request is
  * {@link javax.usb.Request#setCompleted(boolean} completed}.
+ * <p>
+ * A RequestImp may be reused after it has completed.  If it was created by a
+ * {@link com.ibm.jusb.RequestImpFactory RequestImpFactory}, {@link #recycle() recycling} it
+ * returns it to that factory's pool.
+ * <p>
+ * The 8-byte {@link #getSetupPacket() setup packet} is encoded once and cached until
+ * one of its fields is set; the os implementation may {@link #putBytes(ByteBuffer) put}
+ * the setup packet and data into its own buffer without allocating.
  * @author Dan Streetman
  * @author E. Michael Maximilien
  */
 public class RequestImp implements Request,UsbOperations.SubmitResult,UsbSubmission
 {
-	/** Constructor */
+	/**
+	 * Constructor.
+	 * @param factory The RequestImpFactory this should be recycled to, or null.
+	 */
 	public RequestImp( RequestImpFactory factory ) { requestImpFactory = factory; }
 
 	/** @return The UsbDevice */
@@ -66,25 +81,25 @@ public class RequestImp implements Request,UsbOperations.SubmitResult,UsbSubmiss
 	public byte getRequestType() { return bmRequestType; }
 
 	/** @param type the bmRequestType bitmap byte for this Request */
-	public void setRequestType(byte type) { bmRequestType = type; }
+	public void setRequestType(byte type) { bmRequestType = type; setupPacketValid = false; }
 
 	/** @return the Request code byte for this request */
 	public byte getRequestCode() { return bRequest; }
 
 	/** @param r the Request code byte for this request */
-	public void setRequestCode(byte r) { bRequest = r; }
+	public void setRequestCode(byte r) { bRequest = r; setupPacketValid = false; }
 
 	/** @return the wValue for this request */
 	public short getValue() { return wValue; }
 
 	/** @param v the wValue for this request */
-	public void setValue(short v) { wValue = v; }
+	public void setValue(short v) { wValue = v; setupPacketValid = false; }
 
 	/** @return the wIndex for this request */
 	public short getIndex() { return wIndex; }
 
 	/** @param i the wIndex for this request */
-	public void setIndex(short i) { wIndex = i; }
+	public void setIndex(short i) { wIndex = i; setupPacketValid = false; }
 
 	/** @return the length of the <i>data</i> (not including setup bytes) for this request. */
 	public short getLength() { return (short)getData().length; }
@@ -99,13 +114,47 @@ public class RequestImp implements Request,UsbOperations.SubmitResult,UsbSubmiss
 	public byte[] getData() { return data; }
 
 	/** @param d the data byte[] for this request */
-	public void setData(byte[] d) { data = d; }
+	public void setData(byte[] d) { data = d; setupPacketValid = false; }
 
-	/** Clean this object */
-	public void clean() { }
+	/**
+	 * Clean this RequestImp.
+	 * <p>
+	 * This resets all fields to their initial state.
+	 */
+	public void clean()
+	{
+		setRequest(null);
+		usbDeviceImp = null;
+		bmRequestType = 0x00;
+		bRequest = 0x00;
+		wValue = 0x0000;
+		wIndex = 0x0000;
+		data = EMPTY_DATA;
+		bytes = null;
+		setupPacketValid = false;
+		usbSubmissionListener = null;
+		resetSubmission();
+	}
 
-	/** Recycle this object */
-	public void recycle() { }
+	/**
+	 * Recycle this RequestImp.
+	 * <p>
+	 * This should be called when the RequestImp is no longer needed.
+	 * This is {@link #clean() cleaned} and, if it was created by a RequestImpFactory,
+	 * returned to that factory's pool.  This must not be used after recycling.
+	 */
+	public void recycle()
+	{
+		if (null == getRequestImpFactory()) {
+			if (!isInProgress())
+				clean();
+		} else {
+			getRequestImpFactory().recycle(this);
+		}
+	}
+
+	/** @return The RequestImpFactory this recycles to, or null. */
+	public RequestImpFactory getRequestImpFactory() { return requestImpFactory; }
 
 	/** @return The number */
 	public long getNumber() { return number; }
@@ -123,26 +172,25 @@ public class RequestImp implements Request,UsbOperations.SubmitResult,UsbSubmiss
 	public boolean isUsbException() { return null != usbException; }
 
 	/** @return If completed */
-	public boolean isCompleted() { return completed; }
+	public boolean isCompleted() { return completionWaiter.isCompleted(); }
 
 	/** Wait (block) until this submission is completed */
 	public void waitUntilCompleted() { waitUntilCompleted(0); }
 
-	/** Wait (block) until this submission is completed */
-	public void waitUntilCompleted( long msecs )
-	{
-		if (isCompleted())
-			return;
-
-		synchronized ( waitLock ) {
-			waitCount++;
-			while (!isCompleted()) {
-				try { waitLock.wait( msecs ); }
-				catch ( InterruptedException iE ) { }
-			}
-			waitCount--;
-		}
-	}
+	/**
+	 * Wait (block) until this submission is completed.
+	 * <p>
+	 * This returns when this completes, when the timeout passes, or when the
+	 * waiting Thread is interrupted (its interrupt status remains set); check
+	 * {@link #isCompleted() isCompleted} to determine which.  If msecs is 0,
+	 * this waits until completed or interrupted.  The wait strategy is set on the
+	 * {@link #getCompletionWaiter() CompletionWaiter}.
+	 * @param msecs The number of milliseconds to wait.
+	 */
+	public void waitUntilCompleted( long msecs ) { completionWaiter.waitUntilCompleted( msecs, 0 ); }
+
+	/** @return The CompletionWaiter used to wait for completion. */
+	public CompletionWaiter getCompletionWaiter() { return completionWaiter; }
 
 	/**
 	 * Get the Request.
@@ -156,11 +204,26 @@ public class RequestImp implements Request,UsbOperations.SubmitResult,UsbSubmiss
 	 */
 	public Request getRequest() { return request; }
 
+	/**
+	 * Set the UsbSubmissionListener.
+	 * <p>
+	 * The listener is called when this {@link #complete() completes}, after the
+	 * UsbDeviceImp has been notified and this has been set completed.  Blocked waiting
+	 * Threads are woken after the listener returns, but a Thread that checks or starts
+	 * waiting after this is set completed may proceed while the listener is running,
+	 * so a submission with a listener should not be recycled by a waiting Thread.
+	 * @param listener The UsbSubmissionListener, or null.
+	 */
+	public void setUsbSubmissionListener(UsbSubmissionListener listener) { usbSubmissionListener = listener; }
+
+	/** @return The UsbSubmissionListener, or null. */
+	public UsbSubmissionListener getUsbSubmissionListener() { return usbSubmissionListener; }
+
 	/**
 	 * Set this as completed.
 	 * @param c If completed
 	 */
-	public void setCompleted(boolean c) { completed = c; }
+	public void setCompleted(boolean c) { completionWaiter.setCompleted( c ); }
 
 	/**
 	 * Complete this submission.
@@ -168,13 +231,11 @@ public class RequestImp implements Request,UsbOperations.SubmitResult,UsbSubmiss
 	 * This will perform all required completion activities, such as waking up
 	 * {@link #waitUntilCompleted(long) waiting Threads} and (if needed) setting the
 	 * {@link #getRequest() Request}'s params.
+	 * The UsbDeviceImp is notified before this is set completed, and waiting Threads
+	 * are woken last, as a waiting Thread may {@link #recycle() recycle} this as soon as it wakes up.
 	 */
 	public void complete()
 	{
-		setCompleted(true);
-
-		notifyCompleted();
-
 //FIXME - the user Request's method(s) may block or generate Exception/Error which will cause problems
 		try {
 			getRequest().setDataLength(getDataLength());
@@ -183,25 +244,85 @@ public class RequestImp implements Request,UsbOperations.SubmitResult,UsbSubmiss
 		} catch ( NullPointerException npE ) { }
 
 		getUsbDeviceImp().requestImpCompleted(this);
+
+		/* Once set completed, a waiting Thread may recycle this and clear the listener. */
+		UsbSubmissionListener listener = getUsbSubmissionListener();
+
+		setCompleted(true);
+
+		try {
+			if (null != listener)
+				listener.submissionCompleted(this);
+		} finally {
+			notifyCompleted();
+		}
 	}
 
-	public byte[] toBytes()
+	/**
+	 * Get the setup packet.
+	 * <p>
+	 * The packet is encoded on the first call after any of its fields is set,
+	 * and reused until then.  The caller must not modify the returned array.
+	 * @return The 8-byte setup packet.
+	 */
+	public byte[] getSetupPacket()
 	{
-		bytes = new byte[ REQUEST_HEADER_LENGTH + getLength() ];
+		if (!setupPacketValid) {
+			setupPacket[ 0 ] = getRequestType();
+			setupPacket[ 1 ] = getRequestCode();
 
-		bytes[ 0 ] = getRequestType();
-		bytes[ 1 ] = getRequestCode();
+			setupPacket[ 2 ] = (byte)getValue();
+			setupPacket[ 3 ] = (byte)( getValue() >> 8 );
 
-		bytes[ 2 ] = (byte)getValue();
-		bytes[ 3 ] = (byte)( getValue() >> 8 );
+			setupPacket[ 4 ] = (byte)getIndex();
+			setupPacket[ 5 ] = (byte)( getIndex() >> 8 );
 
-		bytes[ 4 ] = (byte)getIndex();
-		bytes[ 5 ] = (byte)( getIndex() >> 8 );
+			setupPacket[ 6 ] = (byte)getLength();
+			setupPacket[ 7 ] = (byte)( getLength() >> 8 );
 
-		bytes[ 6 ] = (byte)getLength();
-		bytes[ 7 ] = (byte)( getLength() >> 8 );
+			setupPacketValid = true;
+		}
 
-		System.arraycopy(data, 0, bytes, REQUEST_HEADER_LENGTH, getLength());
+		return setupPacket;
+	}
+
+	/**
+	 * Put the setup packet and data into a ByteBuffer.
+	 * <p>
+	 * The bytes are put at the buffer's position, which is advanced past them.
+	 * @param buffer The ByteBuffer, which may be direct.
+	 * @exception java.nio.BufferOverflowException If the buffer's remaining bytes are fewer than
+	 * {@link #REQUEST_HEADER_LENGTH REQUEST_HEADER_LENGTH} plus the (unsigned) {@link #getLength() length}.
+	 */
+	public void putBytes( ByteBuffer buffer )
+	{
+		int length = UsbUtil.unsignedInt( getLength() );
+
+		if (buffer.remaining() < REQUEST_HEADER_LENGTH + length)
+			throw new BufferOverflowException();
+
+		buffer.put( getSetupPacket() );
+		buffer.put( getData(), 0, length );
+	}
+
+	/**
+	 * Get the setup packet followed by the data.
+	 * <p>
+	 * The array is kept as the {@link #getBytes() bytes} and reused by later calls if the
+	 * length has not changed, so its contents are only valid until the next call.
+	 * @return The setup packet and data.
+	 */
+	public byte[] toBytes()
+	{
+		/* The wLength is unsigned; data over 32767 bytes has a negative short length. */
+		int dataLength = UsbUtil.unsignedInt( getLength() );
+		int length = REQUEST_HEADER_LENGTH + dataLength;
+
+		if (null == bytes || bytes.length != length)
+			bytes = new byte[ length ];
+
+		System.arraycopy(getSetupPacket(), 0, bytes, 0, REQUEST_HEADER_LENGTH);
+		System.arraycopy(getData(), 0, bytes, REQUEST_HEADER_LENGTH, dataLength);
 
 		return bytes;
 	}
@@ -238,18 +359,35 @@ public class RequestImp implements Request,UsbOperations.SubmitResult,UsbSubmiss
 	}
 
 	//**************************************************************************
-	// Protected methods
+	// Package methods
 
-	/** Notify all Threads waiting for completion */
-	protected void notifyCompleted()
+	/** @return If this has been submitted and not yet completed. */
+	boolean isInProgress() { return null != getUsbDeviceImp() && !isCompleted(); }
+
+	/** Reset the result of the previous submission, so this can be submitted again. */
+	void resetSubmission()
 	{
-		if (0 < waitCount) {
-			synchronized ( waitLock ) {
-				waitLock.notifyAll();
-			}
-		}
+		dataLength = 0;
+		number = 0;
+		usbException = null;
+		completionWaiter.reset();
 	}
 
+	/** @return If this is currently in its factory's pool. */
+	boolean isRecycled() { return recycled; }
+
+	/** @param r If this is currently in its factory's pool. */
+	void setRecycled(boolean r) { recycled = r; }
+
+	/** @return The ControlRequestQueue entry reused for each submission of this. */
+	ControlRequestQueue.Entry getControlRequestQueueEntry() { return controlRequestQueueEntry; }
+
+	//**************************************************************************
+	// Protected methods
+
+	/** Notify all Threads waiting for completion */
+	protected void notifyCompleted() { completionWaiter.notifyWaiters(); }
+
 	/**
 	 * Set the Request.
 	 * @param r The Request.
@@ -267,24 +405,30 @@ public class RequestImp implements Request,UsbOperations.SubmitResult,UsbSubmiss
 	private byte bRequest = 0x00;
 	private short wValue = 0x0000;
 	private short wIndex = 0x0000;
-	private byte[] data = null;
+	private byte[] data = EMPTY_DATA;
 	private byte[] bytes = null;
+	private byte[] setupPacket = new byte[ REQUEST_HEADER_LENGTH ];
+	private boolean setupPacketValid = false;
 	private int dataLength = 0;
 
 	private RequestImpFactory requestImpFactory = null;
+	private boolean recycled = false;
 
 	private long number = 0;
 	private UsbException usbException = null;
-	private boolean completed = false;
+	private UsbSubmissionListener usbSubmissionListener = null;
 
-	private Object waitLock = new Object();
-	private int waitCount = 0;
+	private CompletionWaiter completionWaiter = new CompletionWaiter();
+	private ControlRequestQueue.Entry controlRequestQueueEntry = new ControlRequestQueue.Entry(this);
 
 	//**************************************************************************
 	// Class constants
 
 	public static final int REQUEST_HEADER_LENGTH = 8;
 
+	/** Shared data for Requests with no data stage; it must not be modified. */
+	public static final byte[] EMPTY_DATA = new byte[0];
+
 	private static final byte REQUESTTYPE_SET_CONFIGURATION =
 		RequestConst.REQUESTTYPE_DIRECTION_OUT |
 		RequestConst.REQUESTTYPE_TYPE_STANDARD |
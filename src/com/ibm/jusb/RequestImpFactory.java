@@ -9,30 +9,74 @@ package com.ibm.jusb;
  * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
  */
 
-import java.util.*;
-
 import javax.usb.*;
 import javax.usb.util.DefaultRequestBundle;
 
+import com.ibm.jusb.util.*;
+
 /**
  * RequestFactory implementation.
+ * <p>
+ * RequestImps and RequestBundles created by this factory are taken from bounded pools
+ * when possible.  When a RequestImp is {@link com.ibm.jusb.RequestImp#recycle() recycled}
+ * it is reset and returned to the pool of the factory that created it.
  * @author Dan Streetman
  * @author E. Michael Maximilien
  */
 public class RequestImpFactory implements RequestFactory
 {
+	/** Constructor. */
+	public RequestImpFactory() { this( ObjectPool.DEFAULT_MAX_SIZE ); }
+
+	/**
+	 * Constructor.
+	 * @param max The maximum number of recycled RequestImps to keep.
+	 */
+	public RequestImpFactory( int max ) { requestPool = new ObjectPool( max ); }
+
 	//**************************************************************************
 	// Public methods
 
 	/**
 	 * Indicates to the RequestFactory object that the Request object can be recycled
 	 * That is can be reused again.
+	 * <p>
+	 * A RequestImp is handled as by {@link #recycle(RequestImp) recycle(RequestImp)};
+	 * any other Request is only cleaned.
 	 * @param request the Request object to recycle
 	 */
 	public void recycle( Request request )
 	{
-		request.clean();
-		freeRequestList.add( request );
+		if (request instanceof RequestImp)
+			recycle( (RequestImp)request );
+		else
+			request.clean();
+	}
+
+	/**
+	 * Recycle a RequestImp.
+	 * <p>
+	 * The RequestImp is {@link com.ibm.jusb.RequestImp#clean() cleaned} and, if it
+	 * was created by this factory, returned to the pool.  A RequestImp that is still
+	 * in progress is not recycled.  The caller must not use the RequestImp after
+	 * recycling it.
+	 * @param requestImp The RequestImp to recycle.
+	 */
+	public void recycle( RequestImp requestImp )
+	{
+		synchronized ( requestImp ) {
+			if (requestImp.isRecycled() || requestImp.isInProgress())
+				return;
+
+			requestImp.clean();
+
+			if (this != requestImp.getRequestImpFactory())
+				return;
+
+			requestImp.setRecycled( true );
+		}
+
+		requestPool.put( requestImp );
 	}
 
 	/**
@@ -43,7 +87,7 @@ public class RequestImpFactory implements RequestFactory
 	public void recycle( RequestBundle requestBundle )
 	{
 		requestBundle.clean();
-		freeBundleList.add( requestBundle );
+		bundlePool.put( requestBundle );
 	}
 
 	/**
@@ -52,10 +96,12 @@ public class RequestImpFactory implements RequestFactory
 	 */
 	public RequestBundle createRequestBundle()
 	{
-		if( freeBundleList.isEmpty() == false )
-			return (RequestBundle)freeBundleList.remove( 0 );
+		RequestBundle requestBundle = (RequestBundle)bundlePool.get();
 
-		return new MyRequestBundle( this );
+		if (null == requestBundle)
+			return new MyRequestBundle( this );
+
+		return requestBundle;
 	}
 
 	/** @return a Vendor Request */
@@ -68,7 +114,7 @@ public class RequestImpFactory implements RequestFactory
 
 	/** @return A ClearFeatureRequest */
 	public Request createClearFeatureRequest( byte bmRequestType, short wValue, short wIndex ) throws RequestException
-	{ return createRequest( bmRequestType, RequestConst.REQUEST_CLEAR_FEATURE, wValue, wIndex, new byte[0] ); }
+	{ return createRequest( bmRequestType, RequestConst.REQUEST_CLEAR_FEATURE, wValue, wIndex, RequestImp.EMPTY_DATA ); }
 
 	/** @return A GetConfigurationRequest */
 	public Request createGetConfigurationRequest( byte[] data ) throws RequestException
@@ -88,11 +134,11 @@ public class RequestImpFactory implements RequestFactory
 
 	/** @return A SetAddressRequest */
 	public Request createSetAddressRequest( short wValue ) throws RequestException
-	{ return createRequest( REQUESTTYPE_SET_ADDRESS, RequestConst.REQUEST_SET_ADDRESS, wValue, (short)0x0000, new byte[0] ); }
+	{ return createRequest( REQUESTTYPE_SET_ADDRESS, RequestConst.REQUEST_SET_ADDRESS, wValue, (short)0x0000, RequestImp.EMPTY_DATA ); }
 
 	/** @return A SetConfigurationRequest */
 	public Request createSetConfigurationRequest( short wValue ) throws RequestException
-	{ return createRequest( REQUESTTYPE_SET_CONFIGURATION, RequestConst.REQUEST_SET_CONFIGURATION, wValue, (short)0x0000, new byte[0] ); }
+	{ return createRequest( REQUESTTYPE_SET_CONFIGURATION, RequestConst.REQUEST_SET_CONFIGURATION, wValue, (short)0x0000, RequestImp.EMPTY_DATA ); }
 
 	/** @return A SetDescriptorRequest */
 	public Request createSetDescriptorRequest( short wValue, short wIndex, byte[] data ) throws RequestException
@@ -100,11 +146,11 @@ public class RequestImpFactory implements RequestFactory
 
 	/** @return A SetFeatureRequest */
 	public Request createSetFeatureRequest( byte bmRequestType, short wValue, short wIndex ) throws RequestException
-	{ return createRequest( bmRequestType, RequestConst.REQUEST_SET_FEATURE, wValue, wIndex, new byte[0] ); }
+	{ return createRequest( bmRequestType, RequestConst.REQUEST_SET_FEATURE, wValue, wIndex, RequestImp.EMPTY_DATA ); }
 
 	/** @return A SetInterfaceRequest */
 	public Request createSetInterfaceRequest( short wValue, short wIndex ) throws RequestException
-	{ return createRequest( REQUESTTYPE_SET_INTERFACE, RequestConst.REQUEST_SET_INTERFACE, wValue, wIndex, new byte[0] ); }
+	{ return createRequest( REQUESTTYPE_SET_INTERFACE, RequestConst.REQUEST_SET_INTERFACE, wValue, wIndex, RequestImp.EMPTY_DATA ); }
 
 	/** @return A SynchFrameRequest */
 	public Request createSynchFrameRequest( short wIndex, byte[] data ) throws RequestException
@@ -131,7 +177,7 @@ public class RequestImpFactory implements RequestFactory
 	/** @return A RequestImp */
 	public RequestImp createRequestImp( byte bmRequestType, byte requestType, short wValue, short wIndex, byte[] data ) throws RequestException
 	{
-		RequestImp request = new RequestImp( this );
+		RequestImp request = createRequestImp();
 
 		request.setRequestType( bmRequestType );
 		request.setRequestCode( requestType );
@@ -142,11 +188,33 @@ public class RequestImpFactory implements RequestFactory
 		return request;
 	}
 
+	/** @return The maximum number of recycled RequestImps to keep. */
+	public int getMaxPoolSize() { return requestPool.getMaxSize(); }
+
+	/** @param max The maximum number of recycled RequestImps to keep. */
+	public void setMaxPoolSize( int max ) { requestPool.setMaxSize( max ); }
+
+	//**************************************************************************
+	// Protected methods
+
+	/** @return An empty RequestImp, from the pool if possible. */
+	protected RequestImp createRequestImp()
+	{
+		RequestImp requestImp = (RequestImp)requestPool.get();
+
+		if (null == requestImp)
+			return new RequestImp( this );
+
+		requestImp.setRecycled( false );
+
+		return requestImp;
+	}
+
 	//**************************************************************************
 	// Instance variables
 
-	private List freeRequestList = new Vector();
-	private List freeBundleList = new Vector();
+	private ObjectPool requestPool = null;
+	private ObjectPool bundlePool = new ObjectPool();
 
 	//**************************************************************************
 	// Class constants
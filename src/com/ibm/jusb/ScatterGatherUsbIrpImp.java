@@ -0,0 +1,209 @@
+package com.ibm.jusb;
+
+/**
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import javax.usb.*;
+
+/**
+ * UsbIrpImp that transfers an ordered list of data segments.
+ * <p>
+ * The user must {@link #addSegment(byte[],int,int) add} the segments, instead of
+ * setting the {@link #getData() data}.  All segments are transferred as a single submission,
+ * in the order they were added, and the {@link #getDataLength() data length} is the
+ * combined number of bytes transferred over all segments.
+ * <p>
+ * The os implementation may handle the segments natively.  If it does not, the
+ * {@link com.ibm.jusb.os.AbstractUsbPipeOsImp AbstractUsbPipeOsImp} {@link #linearise() linearises}
+ * the segments into a single byte[], which is then submitted as a normal UsbIrpImp; for IN
+ * transfers, the data is copied back into the segments when this is {@link #complete() completed}.
+ * @author Dan Streetman
+ */
+public class ScatterGatherUsbIrpImp extends UsbIrpImp
+{
+	/** Constructor. */
+	public ScatterGatherUsbIrpImp() { }
+
+	//*************************************************************************
+	// Public methods
+
+	/**
+	 * Add a segment.
+	 * <p>
+	 * The entire byte[] is used.
+	 * @param data The segment's data.
+	 */
+	public void addSegment( byte[] data ) { addSegment( data, 0, data.length ); }
+
+	/**
+	 * Add a segment.
+	 * <p>
+	 * The byte[] is not copied; only the specified section is transferred.
+	 * @param data The segment's data.
+	 * @param offset The offset of the first byte to use.
+	 * @param length The number of bytes to use.
+	 * @throws IllegalArgumentException If the offset or length are outside the byte[].
+	 */
+	public void addSegment( byte[] data, int offset, int length )
+	{
+		if (0 > offset || 0 > length || data.length < (offset + length))
+			throw new IllegalArgumentException("Offset " + offset + " and length " + length + " are outside the data");
+
+		if (segmentCount == segmentData.length) {
+			byte[][] newData = new byte[segmentCount * 2][];
+			int[] newOffsets = new int[segmentCount * 2];
+			int[] newLengths = new int[segmentCount * 2];
+
+			System.arraycopy( segmentData, 0, newData, 0, segmentCount );
+			System.arraycopy( segmentOffsets, 0, newOffsets, 0, segmentCount );
+			System.arraycopy( segmentLengths, 0, newLengths, 0, segmentCount );
+
+			segmentData = newData;
+			segmentOffsets = newOffsets;
+			segmentLengths = newLengths;
+		}
+
+		segmentData[segmentCount] = data;
+		segmentOffsets[segmentCount] = offset;
+		segmentLengths[segmentCount] = length;
+		segmentCount++;
+		totalLength += length;
+	}
+
+	/** Remove all segments. */
+	public void clearSegments()
+	{
+		for (int i=0; i<segmentCount; i++)
+			segmentData[i] = null;
+
+		segmentCount = 0;
+		totalLength = 0;
+		linearised = false;
+		copyBack = false;
+	}
+
+	/** @return The number of segments. */
+	public int getSegmentCount() { return segmentCount; }
+
+	/**
+	 * @param index The segment index.
+	 * @return The segment's data.
+	 */
+	public byte[] getSegmentData( int index ) { return segmentData[checkIndex(index)]; }
+
+	/**
+	 * @param index The segment index.
+	 * @return The offset of the segment's first byte.
+	 */
+	public int getSegmentOffset( int index ) { return segmentOffsets[checkIndex(index)]; }
+
+	/**
+	 * @param index The segment index.
+	 * @return The number of bytes in the segment.
+	 */
+	public int getSegmentLength( int index ) { return segmentLengths[checkIndex(index)]; }
+
+	/** @return The combined number of bytes in all segments. */
+	public int getTotalLength() { return totalLength; }
+
+	/**
+	 * Linearise the segments.
+	 * <p>
+	 * This sets the {@link #getData() data} to a single byte[] of the
+	 * {@link #getTotalLength() total length}.  For OUT transfers, the segments are copied into it;
+	 * for IN transfers, the received data is copied back into the segments on completion.
+	 * The {@link #getUsbPipeImp() UsbPipeImp} must be set before calling this.
+	 */
+	public void linearise()
+	{
+		byte[] data = getData();
+
+		if (!linearised || null == data || totalLength != data.length)
+			data = new byte[totalLength];
+
+		boolean in = UsbInfoConst.ENDPOINT_DIRECTION_IN == getUsbPipeImp().getUsbEndpointImp().getDirection();
+
+		if (!in) {
+			for (int i=0, pos=0; i<segmentCount; pos += segmentLengths[i++])
+				System.arraycopy( segmentData[i], segmentOffsets[i], data, pos, segmentLengths[i] );
+		}
+
+		setData( data );
+
+		linearised = true;
+		copyBack = in;
+	}
+
+	/**
+	 * Complete this submission.
+	 * <p>
+	 * If this was {@link #linearise() linearised} for an IN transfer, the
+	 * received data is first copied back into the segments.
+	 */
+	public void complete()
+	{
+		if (copyBack) {
+			byte[] data = getData();
+			int remaining = getDataLength();
+
+			for (int i=0, pos=0; i<segmentCount && 0 < remaining; pos += segmentLengths[i++]) {
+				int len = Math.min( remaining, segmentLengths[i] );
+				System.arraycopy( data, pos, segmentData[i], segmentOffsets[i], len );
+				remaining -= len;
+			}
+
+			copyBack = false;
+		}
+
+		super.complete();
+	}
+
+	/** Clean this, including removing all segments. */
+	public void clean()
+	{
+		super.clean();
+
+		clearSegments();
+	}
+
+	//*************************************************************************
+	// Protected methods
+
+	/**
+	 * Check the segment index.
+	 * @param index The index.
+	 * @return The index.
+	 * @throws ArrayIndexOutOfBoundsException If the index is not valid.
+	 */
+	protected int checkIndex( int index )
+	{
+		if (0 > index || segmentCount <= index)
+			throw new ArrayIndexOutOfBoundsException( index );
+
+		return index;
+	}
+
+	//*************************************************************************
+	// Instance variables
+
+	private byte[][] segmentData = new byte[INITIAL_SEGMENTS][];
+	private int[] segmentOffsets = new int[INITIAL_SEGMENTS];
+	private int[] segmentLengths = new int[INITIAL_SEGMENTS];
+	private int segmentCount = 0;
+	private int totalLength = 0;
+
+	private boolean linearised = false;
+	private boolean copyBack = false;
+
+	//*************************************************************************
+	// Class constants
+
+	private static final int INITIAL_SEGMENTS = 4;
+
+}
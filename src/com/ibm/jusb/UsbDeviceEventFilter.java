@@ -0,0 +1,106 @@
+package com.ibm.jusb;
+
+/**
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.util.*;
+
+import javax.usb.event.*;
+
+import com.ibm.jusb.util.*;
+
+/**
+ * EventFilter for UsbDeviceListeners.
+ * <p>
+ * This selects data, error, and/or detach events, and data events with at least a
+ * {@link #getMinimumLength() minimum length}.  Subclasses may override
+ * {@link #acceptData(byte[],int) acceptData} to test the data itself.
+ * @author Dan Streetman
+ */
+public class UsbDeviceEventFilter implements EventFilter
+{
+	/**
+	 * Constructor.
+	 * @param types The event types to accept.
+	 */
+	public UsbDeviceEventFilter( int types ) { this( types, 0 ); }
+
+	/**
+	 * Constructor.
+	 * @param types The event types to accept.
+	 * @param minimumLength The minimum length of accepted data events.
+	 */
+	public UsbDeviceEventFilter( int types, int minimumLength )
+	{
+		eventTypes = types;
+		minLength = minimumLength;
+	}
+
+	//**************************************************************************
+	// Public methods
+
+	/**
+	 * If the event should be fired to the listener.
+	 * @param event The event.
+	 * @return If the event should be fired to the listener.
+	 */
+	public boolean accept( EventObject event )
+	{
+		if (event instanceof UsbDeviceErrorEvent)
+			return 0 != (ERROR_EVENTS & eventTypes);
+
+		if (event instanceof UsbDeviceDataEvent) {
+			UsbDeviceDataEvent dataEvent = (UsbDeviceDataEvent)event;
+			return acceptData( dataEvent.getData(), dataEvent.getDataLength() );
+		}
+
+		return 0 != (DETACH_EVENTS & eventTypes);
+	}
+
+	/**
+	 * If a data event should be fired to the listener.
+	 * @param data The data.
+	 * @param length The length of valid data.
+	 * @return If the data event should be fired to the listener.
+	 */
+	public boolean acceptData( byte[] data, int length )
+	{
+		return 0 != (DATA_EVENTS & eventTypes) && length >= minLength;
+	}
+
+	/** @return The event types to accept. */
+	public int getEventTypes() { return eventTypes; }
+
+	/** @return The minimum length of accepted data events. */
+	public int getMinimumLength() { return minLength; }
+
+	//**************************************************************************
+	// Instance variables
+
+	private int eventTypes = ALL_EVENTS;
+	private int minLength = 0;
+
+	//**************************************************************************
+	// Class constants
+
+	/** Accept data events. */
+	public static final int DATA_EVENTS = 0x01;
+	/** Accept error events. */
+	public static final int ERROR_EVENTS = 0x02;
+	/** Accept detach events. */
+	public static final int DETACH_EVENTS = 0x04;
+	/** Accept all events. */
+	public static final int ALL_EVENTS = DATA_EVENTS | ERROR_EVENTS | DETACH_EVENTS;
+
+	/** Filter accepting only error events. */
+	public static final UsbDeviceEventFilter ERRORS_ONLY = new UsbDeviceEventFilter( ERROR_EVENTS );
+	/** Filter accepting only data events. */
+	public static final UsbDeviceEventFilter DATA_ONLY = new UsbDeviceEventFilter( DATA_EVENTS );
+
+}
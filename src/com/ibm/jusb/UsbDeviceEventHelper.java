@@ -11,12 +11,19 @@ package com.ibm.jusb;
 
 import java.util.*;
 
+import javax.usb.*;
 import javax.usb.event.*;
 
 import com.ibm.jusb.util.*;
 
 /**
  * Helper class to handle multiplexing UsbDeviceEvents to listeners.
+ * <p>
+ * Listeners added with a {@link com.ibm.jusb.UsbDeviceEventFilter UsbDeviceEventFilter}
+ * are tested before the event is queued.
+ * <p>
+ * Error and detach events are queued with priority, ahead of any queued data events,
+ * so they are not delayed by a flood of data.  Each kind keeps its own order.
  * @author Dan Streetman
  */
 public class UsbDeviceEventHelper extends EventListenerHelper implements UsbDeviceListener
@@ -27,7 +34,12 @@ public class UsbDeviceEventHelper extends EventListenerHelper implements UsbDevi
 		if (!hasListeners())
 			return;
 
-		addRunnable( new ErrorEvent(event) );
+		ListenerEntry[] entries = getListenerEntries(event);
+
+		if (0 == entries.length)
+			return;
+
+		fireEvent( new ErrorEvent(event), entries, true );
 	}
 
 	/** @param event The Event to fire. */
@@ -36,7 +48,29 @@ public class UsbDeviceEventHelper extends EventListenerHelper implements UsbDevi
 		if (!hasListeners())
 			return;
 
-		addRunnable( new DataEvent(event) );
+		ListenerEntry[] entries = getListenerEntries(event);
+
+		if (0 == entries.length)
+			return;
+
+		fireEvent( new DataEvent(event), entries );
+	}
+
+	/**
+	 * Fire a data event.
+	 * <p>
+	 * The UsbDeviceDataEvent is only created if there are listeners.
+	 * @param source The UsbDevice.
+	 * @param sn The sequence number.
+	 * @param data The data.
+	 * @param length The length of valid data.
+	 */
+	public void dataEventOccurred(UsbDevice source, long sn, byte[] data, int length)
+	{
+		if (!hasListeners())
+			return;
+
+		dataEventOccurred( new UsbDeviceDataEvent(source,sn,data,length) );
 	}
 
 	/** @param event The Event to fire. */
@@ -45,21 +79,22 @@ public class UsbDeviceEventHelper extends EventListenerHelper implements UsbDevi
 		if (!hasListeners())
 			return;
 
-		addRunnable( new DetachEvent(event) );
-	}
+		ListenerEntry[] entries = getListenerEntries(event);
+
+		if (0 == entries.length)
+			return;
 
-//FIXME - event firing should use a list copy or be sync'd with add/remove of listeners
+		fireEvent( new DetachEvent(event), entries, true );
+	}
 
 	private class ErrorEvent extends EventRunnable
 	{
 		public ErrorEvent() { super(); }
 		public ErrorEvent(EventObject e) { super(e); }
 
-		public void run()
+		public void fire(EventListener listener)
 		{
-			List list = getEventListeners();
-			for (int i=0; i<list.size(); i++)
-				((UsbDeviceListener)list.get(i)).errorEventOccurred((UsbDeviceErrorEvent)event);
+			((UsbDeviceListener)listener).errorEventOccurred((UsbDeviceErrorEvent)event);
 		}
 	}
 
@@ -68,11 +103,9 @@ public class UsbDeviceEventHelper extends EventListenerHelper implements UsbDevi
 		public DataEvent() { super(); }
 		public DataEvent(EventObject e) { super(e); }
 
-		public void run()
+		public void fire(EventListener listener)
 		{
-			List list = getEventListeners();
-			for (int i=0; i<list.size(); i++)
-				((UsbDeviceListener)list.get(i)).dataEventOccurred((UsbDeviceDataEvent)event);
+			((UsbDeviceListener)listener).dataEventOccurred((UsbDeviceDataEvent)event);
 		}
 	}
 
@@ -81,11 +114,9 @@ public class UsbDeviceEventHelper extends EventListenerHelper implements UsbDevi
 		public DetachEvent() { super(); }
 		public DetachEvent(EventObject e) { super(e); }
 
-		public void run()
+		public void fire(EventListener listener)
 		{
-			List list = getEventListeners();
-			for (int i=0; i<list.size(); i++)
-				((UsbDeviceListener)list.get(i)).usbDeviceDetached((UsbDeviceEvent)event);
+			((UsbDeviceListener)listener).usbDeviceDetached((UsbDeviceEvent)event);
 		}
 	}
 }
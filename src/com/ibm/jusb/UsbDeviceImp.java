@@ -233,6 +233,8 @@ public class UsbDeviceImp extends AbstractUsbInfo implements UsbDevice
 
 			fireDataEvent(requestImp.getData(),requestImp.getDataLength());
 		}
+
+		getUsbOperationsImp().getControlRequestQueue().requestImpCompleted(requestImp);
 	}
 
 	/** @param the listener to add */
@@ -241,12 +243,61 @@ public class UsbDeviceImp extends AbstractUsbInfo implements UsbDevice
 		usbDeviceEventHelper.addEventListener(listener);
 	}
 
+	/**
+	 * Add a listener with a filter.
+	 * <p>
+	 * Only events accepted by the filter are fired to the listener; the filter
+	 * is tested before the event is queued.
+	 * @param listener the listener to add
+	 * @param filter the UsbDeviceEventFilter
+	 */
+	public void addUsbDeviceListener( UsbDeviceListener listener, UsbDeviceEventFilter filter )
+	{
+		usbDeviceEventHelper.addEventListener(listener, filter);
+	}
+
 	/** @param the listener to remove */
 	public void removeUsbDeviceListener( UsbDeviceListener listener )
 	{
 		usbDeviceEventHelper.removeEventListener(listener);
 	}
 
+	/**
+	 * Get the dispatch metrics of this device's listeners.
+	 * <p>
+	 * Metrics are only recorded if {@link #setListenerMetricsEnabled(boolean) enabled}.
+	 * @return A List of {@link com.ibm.jusb.util.ListenerMetrics ListenerMetrics}.
+	 */
+	public List getListenerMetrics() { return usbDeviceEventHelper.getListenerMetrics(); }
+
+	/**
+	 * Set if the dispatch metrics of this device's listeners are recorded.
+	 * @param enabled If metrics should be recorded.
+	 */
+	public void setListenerMetricsEnabled( boolean enabled ) { usbDeviceEventHelper.setMetricsEnabled( enabled ); }
+
+	/** @return The UsbDeviceEventHelper used to fire this device's events. */
+	public UsbDeviceEventHelper getUsbDeviceEventHelper() { return usbDeviceEventHelper; }
+
+	/** @return The event dispatch mode. */
+	public int getEventDispatchMode() { return usbDeviceEventHelper.getDispatchMode(); }
+
+	/**
+	 * Set the event dispatch mode.
+	 * <p>
+	 * With {@link com.ibm.jusb.util.EventListenerHelper#DISPATCH_QUEUED DISPATCH_QUEUED} (the default),
+	 * UsbDeviceListeners are called on a shared event Thread, where they may block, although that
+	 * delays this device's later events.  With {@link com.ibm.jusb.util.EventListenerHelper#DISPATCH_INLINE DISPATCH_INLINE},
+	 * UsbDeviceListeners are called directly on the Thread that {@link com.ibm.jusb.RequestImp#complete() completes}
+	 * each Request, or that reports the device detach; they must not block, and must not
+	 * synchronously submit Requests to this device.  A RuntimeException they throw is caught and ignored.
+	 * With {@link com.ibm.jusb.util.EventListenerHelper#DISPATCH_PER_LISTENER DISPATCH_PER_LISTENER},
+	 * each UsbDeviceListener has its own event queue, so one that blocks delays only its own later events.
+	 * @param mode The event dispatch mode.
+	 * @throws IllegalArgumentException If the mode is not valid.
+	 */
+	public void setEventDispatchMode( int mode ) { usbDeviceEventHelper.setDispatchMode( mode ); }
+
 	/**
 	 * Visitor.accept method
 	 * @param visitor the UsbInfoVisitor visiting this UsbInfo
@@ -368,14 +419,14 @@ public class UsbDeviceImp extends AbstractUsbInfo implements UsbDevice
 
 	/**
 	 * Fire a data event.
+	 * <p>
+	 * No event is created if there are no listeners.
 	 * @param data The data.
 	 * @param len The data length.
 	 */
 	protected void fireDataEvent(byte[] data, int len)
 	{
-		UsbDeviceDataEvent uddE = new UsbDeviceDataEvent(this,/*FIXME - no sn*/(long)0,data,len);
-
-		usbDeviceEventHelper.dataEventOccurred(uddE);
+		usbDeviceEventHelper.dataEventOccurred(this,/*FIXME - no sn*/(long)0,data,len);
 	}
 
 	/** Fire detach event. */
@@ -10,6 +10,7 @@ package com.ibm.jusb;
  */
 
 import java.util.*;
+import java.nio.*;
 
 import javax.usb.*;
 import javax.usb.util.*;
@@ -23,7 +24,9 @@ import com.ibm.jusb.util.*;
  * <p>
  * The user must provide some fields:
  * <ul>
- * <li>{@link #getData() data} via its {@link #setData(byte[]) setter}.</li>
+ * <li>{@link #getData() data} via its {@link #setData(byte[]) setter}
+ * or its {@link #setData(byte[],int,int) offset and length setter},
+ * or a {@link #getBuffer() ByteBuffer} via its {@link #setBuffer(ByteBuffer) setter}.</li>
  * <li>{@link #getAcceptShortPacket() short packet policy} via its {@link #setAcceptShortPacket(boolean) setter}.</li>
  * </ul>
  * <p>
@@ -45,6 +48,20 @@ import com.ibm.jusb.util.*;
  * implementation with this UsbIrpImp by {@link #setUsbIrp(UsbIrp) setting} the local
  * {@link #getUsbIrp() UsbIrp}.  If this has a local UsbIrp when it is
  * {@link #complete() completed}, this will set the proper fields on the wrapped UsbIrp.
+ * <p>
+ * The data transferred is the {@link #getLength() length} bytes of the data, starting at the
+ * {@link #getOffset() offset}; the os implementation must not access the data outside that range.
+ * This allows a large byte[] to be transferred in sections without copying.
+ * <p>
+ * If a ByteBuffer is set, the data transferred is the buffer's remaining bytes, from
+ * its position to its limit; the position and limit are not changed by the submission.
+ * If the os implementation {@link com.ibm.jusb.os.UsbPipeOsImp#isDirectBufferSupported() supports}
+ * ByteBuffers, it receives the buffer unchanged and the {@link #getData() data} is null.
+ * Otherwise the UsbPipeImp {@link #stageBuffer(boolean) stages} the buffer through a byte[].
+ * <p>
+ * A UsbIrpImp may be reused after it has completed.  If it was created by a
+ * {@link com.ibm.jusb.UsbIrpImpFactory UsbIrpImpFactory}, {@link #recycle() recycling} it
+ * returns it to that factory's pool.
  * @author Dan Streetman
  */
 public class UsbIrpImp implements UsbIrp,UsbPipe.SubmitResult,UsbSubmission
@@ -58,6 +75,12 @@ public class UsbIrpImp implements UsbIrp,UsbPipe.SubmitResult,UsbSubmission
 	 */
 	public UsbIrpImp(UsbIrp irp) { setUsbIrp(irp); }
 
+	/**
+	 * Constructor.
+	 * @param factory The UsbIrpImpFactory this should be recycled to.
+	 */
+	public UsbIrpImp(UsbIrpImpFactory factory) { usbIrpImpFactory = factory; }
+
 	//*************************************************************************
 	// Public methods
 
@@ -78,8 +101,97 @@ public class UsbIrpImp implements UsbIrp,UsbPipe.SubmitResult,UsbSubmission
 	/** @return the data associated with this submission */
 	public byte[] getData() { return data; }
 
-	/** @param data the data associated with the submission */
-	public void setData( byte[] newData ) { data = newData; }
+	/**
+	 * Set the data.
+	 * <p>
+	 * The entire byte[] is used.
+	 * @param data the data associated with the submission
+	 */
+	public void setData( byte[] newData ) { setData( newData, 0, null == newData ? 0 : newData.length ); }
+
+	/**
+	 * Set the data.
+	 * <p>
+	 * Only the specified section of the byte[] is used.
+	 * This clears any {@link #getBuffer() ByteBuffer}.
+	 * @param newData the data associated with the submission
+	 * @param newOffset the offset of the first byte to use.
+	 * @param newLength the number of bytes to use.
+	 * @throws IllegalArgumentException If the offset or length are outside the byte[].
+	 */
+	public void setData( byte[] newData, int newOffset, int newLength )
+	{
+		if (0 > newOffset || 0 > newLength || (null == newData ? 0 : newData.length) < (newOffset + newLength))
+			throw new IllegalArgumentException("Offset " + newOffset + " and length " + newLength + " are outside the data");
+
+		data = newData;
+		offset = newOffset;
+		length = newLength;
+		buffer = null;
+		bufferStaged = false;
+		bufferCopyBack = false;
+	}
+
+	/** @return the offset of the first byte of data to use */
+	public int getOffset() { return offset; }
+
+	/** @return the number of bytes of data to use */
+	public int getLength() { return length; }
+
+	/** @return the ByteBuffer associated with this submission, or null */
+	public ByteBuffer getBuffer() { return buffer; }
+
+	/**
+	 * Set the ByteBuffer associated with this submission.
+	 * <p>
+	 * This clears any {@link #getData() data}.
+	 * @param newBuffer the ByteBuffer, which may be direct.
+	 */
+	public void setBuffer( ByteBuffer newBuffer )
+	{
+		buffer = newBuffer;
+		data = null;
+		offset = 0;
+		length = 0;
+		bufferStaged = false;
+		bufferCopyBack = false;
+	}
+
+	/**
+	 * Stage the ByteBuffer through a byte[].
+	 * <p>
+	 * This sets the {@link #getData() data} to a byte[] holding the buffer's remaining bytes.
+	 * If the buffer is backed by an array, that array is used directly with the corresponding
+	 * {@link #getOffset() offset} and {@link #getLength() length}; otherwise the bytes are copied.  If <i>in</i> is true, the transferred data
+	 * will be copied back into the buffer when this is {@link #complete() completed}.
+	 * @param in If this submission transfers data into the buffer.
+	 */
+	public void stageBuffer( boolean in )
+	{
+		ByteBuffer b = getBuffer();
+		int len = b.remaining();
+
+		if (b.hasArray()) {
+			data = b.array();
+			offset = b.arrayOffset() + b.position();
+			length = len;
+			bufferStaged = false;
+			bufferCopyBack = false;
+			return;
+		}
+
+		if (!bufferStaged || null == data || len != data.length)
+			data = new byte[len];
+
+		offset = 0;
+		length = len;
+
+		if (!in)
+			b.duplicate().get( data );
+
+		bufferStaged = true;
+		bufferCopyBack = in;
+	}
 
 	/**
 	 * If this UsbIrp is in progress on a UsbPipe.
@@ -88,7 +200,7 @@ public class UsbIrpImp implements UsbIrp,UsbPipe.SubmitResult,UsbSubmission
 	public boolean isActive() { return active; }
 
 	/** @return true if this submit has completed */
-	public boolean isCompleted() { return completed; }
+	public boolean isCompleted() { return completionWaiter.isCompleted(); }
 
 	/** @return if a UsbException occured during submission */
 	public boolean isInUsbException() { return ( null != getUsbException() ); }
@@ -102,21 +214,21 @@ public class UsbIrpImp implements UsbIrp,UsbPipe.SubmitResult,UsbSubmission
 	/** Wait (block) until this submission is completed */
 	public void waitUntilCompleted( long msecs ) { waitUntilCompleted( msecs, 0 ); }
 
-	/** Wait (block) until this submission is completed */
-	public void waitUntilCompleted( long msecs, int nsecs )
-	{
-		if (isCompleted())
-			return;
+	/**
+	 * Wait (block) until this submission is completed.
+	 * <p>
+	 * This returns when this completes, when the timeout passes, or when the
+	 * waiting Thread is interrupted (its interrupt status remains set); check
+	 * {@link #isCompleted() isCompleted} to determine which.  If both the msecs
+	 * and nsecs are 0, this waits until completed or interrupted.  The wait
+	 * strategy is set on the {@link #getCompletionWaiter() CompletionWaiter}.
+	 * @param msecs The number of milliseconds to wait.
+	 * @param nsecs The additional number of nanoseconds to wait.
+	 */
+	public void waitUntilCompleted( long msecs, int nsecs ) { completionWaiter.waitUntilCompleted( msecs, nsecs ); }
 
-		synchronized ( waitLock ) {
-			waitCount++;
-			while (!isCompleted()) {
-				try { waitLock.wait( msecs, nsecs ); }
-				catch ( InterruptedException iE ) { }
-			}
-			waitCount--;
-		}
-	}
+	/** @return The CompletionWaiter used to wait for completion. */
+	public CompletionWaiter getCompletionWaiter() { return completionWaiter; }
 
 	/** @return the UsbException that occured during submission */
 	public UsbException getUsbException() { return usbException; }
@@ -134,9 +246,49 @@ public class UsbIrpImp implements UsbIrp,UsbPipe.SubmitResult,UsbSubmission
 	/**
 	 * Recycle this UsbIrpImp
 	 * <p>
-	 * This should be called when the UsbIrpImp is no longer needed
+	 * This should be called when the UsbIrpImp is no longer needed.
+	 * This is {@link #clean() cleaned} and, if it was created by a UsbIrpImpFactory,
+	 * returned to that factory's pool.  This must not be used after recycling.
 	 */
-	public void recycle() { }
+	public void recycle()
+	{
+		if (null == getUsbIrpImpFactory()) {
+			synchronized ( this ) {
+				if (!isSubmittedAndNotCompleted())
+					clean();
+			}
+		} else {
+			getUsbIrpImpFactory().recycle(this);
+		}
+	}
+
+	/**
+	 * Clean this UsbIrpImp.
+	 * <p>
+	 * This resets all fields to their initial state.
+	 */
+	public void clean()
+	{
+		setUsbIrp(null);
+		number = -1;
+		sequenceNumber = -1;
+		usbPipeImp = null;
+		data = null;
+		offset = 0;
+		length = 0;
+		buffer = null;
+		bufferStaged = false;
+		bufferCopyBack = false;
+		active = false;
+		completionWaiter.reset();
+		acceptShortPacket = true;
+		dataLength = -1;
+		usbException = null;
+		usbSubmissionListener = null;
+	}
+
+	/** @return The UsbIrpImpFactory this recycles to, or null. */
+	public UsbIrpImpFactory getUsbIrpImpFactory() { return usbIrpImpFactory; }
 
 	/**
 	 * Sets the number for this submission
@@ -183,19 +335,24 @@ public class UsbIrpImp implements UsbIrp,UsbPipe.SubmitResult,UsbSubmission
 	 * Sets isCompleted
 	 * @param b whether this is done
 	 */
-	public void setCompleted( boolean b ) { completed = b; }
+	public void setCompleted( boolean b ) { completionWaiter.setCompleted( b ); }
 
 	/**
 	 * Complete this submission.
 	 * <p>
 	 * This will wake up all
 	 * {@link #waitUntilCompleted() waiting Threads}.
+	 * The UsbPipeImp is notified before waking any Threads, as a waiting Thread
+	 * may {@link #recycle() recycle} this as soon as it wakes up.
 	 */
 	public void complete()
 	{
-		setCompleted(true);
+		synchronized ( this ) {
+			setActive(false);
+		}
 
-		notifyCompleted();
+		if (bufferCopyBack && 0 < getDataLength())
+			getBuffer().duplicate().put( data, 0, getDataLength() );
 
 //FIXME - the user's UsbIrp methods could block or generate Exception/Error which will cause problems
 		try {
@@ -206,6 +363,18 @@ public class UsbIrpImp implements UsbIrp,UsbPipe.SubmitResult,UsbSubmission
 		} catch ( NullPointerException npE ) { }
 
 		getUsbPipeImp().usbIrpImpCompleted(this);
+
+		/* Once set completed, a waiting Thread may recycle this and clear the listener. */
+		UsbSubmissionListener listener = getUsbSubmissionListener();
+
+		setCompleted(true);
+
+		try {
+			if (null != listener)
+				listener.submissionCompleted(this);
+		} finally {
+			notifyCompleted();
+		}
 	}
 
 	/**
@@ -220,6 +389,23 @@ public class UsbIrpImp implements UsbIrp,UsbPipe.SubmitResult,UsbSubmission
 	 */
 	public void setUsbException( UsbException exception ) { usbException = exception; }
 
+	/**
+	 * Cancel this submission.
+	 * <p>
+	 * If this is in progress, its UsbPipeImp {@link com.ibm.jusb.UsbPipeImp#abortSubmission(UsbIrpImp) aborts}
+	 * it and it is completed with a UsbException.  If this is not in progress, this does nothing.
+	 * @return false if this is in progress and its UsbPipeImp could not abort it.
+	 */
+	public boolean cancel()
+	{
+		UsbPipeImp pipe = getUsbPipeImp();
+
+		if (isActive() && null != pipe)
+			return pipe.abortSubmission(this);
+
+		return true;
+	}
+
 	/**
 	 * Set the UsbIrp to wrap.
 	 * @param irp The UsbIrp.
@@ -232,34 +418,67 @@ public class UsbIrpImp implements UsbIrp,UsbPipe.SubmitResult,UsbSubmission
 	 */
 	public UsbIrp getUsbIrp() { return usbIrp; }
 
+	/**
+	 * Set the UsbSubmissionListener.
+	 * <p>
+	 * The listener is called when this {@link #complete() completes}, after the
+	 * UsbPipeImp has been notified and this has been set completed.  Blocked waiting
+	 * Threads are woken after the listener returns, but a Thread that checks or starts
+	 * waiting after this is set completed may proceed while the listener is running,
+	 * so a submission with a listener should not be recycled by a waiting Thread.
+	 * @param listener The UsbSubmissionListener, or null.
+	 */
+	public void setUsbSubmissionListener(UsbSubmissionListener listener) { usbSubmissionListener = listener; }
+
+	/** @return The UsbSubmissionListener, or null. */
+	public UsbSubmissionListener getUsbSubmissionListener() { return usbSubmissionListener; }
+
+	//*************************************************************************
+	// Package methods
+
+	/** @return If this is currently in its factory's pool. */
+	boolean isRecycled() { return recycled; }
+
+	/** @param r If this is currently in its factory's pool. */
+	void setRecycled(boolean r) { recycled = r; }
+
+	/**
+	 * If this was submitted and has not completed.
+	 * <p>
+	 * This is also true while this is {@link #complete() completing}; it is no longer
+	 * active then, but its UsbPipeImp is still being notified.  This may not be recycled while this is true.
+	 * @return If this was submitted and has not completed.
+	 */
+	boolean isSubmittedAndNotCompleted() { return null != getUsbPipeImp() && !isCompleted(); }
+
 	//*************************************************************************
 	// Protected methods
 
-	protected void notifyCompleted()
-	{
-		if (0 < waitCount) {
-			synchronized ( waitLock ) {
-				waitLock.notifyAll();
-			}
-		}
-	}
+	protected void notifyCompleted() { completionWaiter.notifyWaiters(); }
 
 	//*************************************************************************
 	// Instance variables
 
 	private UsbIrp usbIrp = null;
 
-	private Object waitLock = new Object();
-	private int waitCount = 0;
+	private UsbIrpImpFactory usbIrpImpFactory = null;
+	private boolean recycled = false;
+
+	private CompletionWaiter completionWaiter = new CompletionWaiter();
 
 	private long number = -1;
 	private long sequenceNumber = -1;
 	private UsbPipeImp usbPipeImp = null;
 	private byte[] data = null;
-	private boolean active = false;
-	private boolean completed = false;
+	private int offset = 0;
+	private int length = 0;
+	private ByteBuffer buffer = null;
+	private boolean bufferStaged = false;
+	private boolean bufferCopyBack = false;
+	private volatile boolean active = false;
 	private boolean acceptShortPacket = true;
 	private int dataLength = -1;
 	private UsbException usbException = null;
+	private UsbSubmissionListener usbSubmissionListener = null;
 
 }
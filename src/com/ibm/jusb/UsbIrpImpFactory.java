@@ -11,16 +11,76 @@ package com.ibm.jusb;
 
 import javax.usb.*;
 
+import com.ibm.jusb.util.*;
+
 /**
  * UsbIrpFactory implementation.
+ * <p>
+ * UsbIrpImps created by this factory are taken from a bounded pool when possible.
+ * When a UsbIrpImp is {@link com.ibm.jusb.UsbIrpImp#recycle() recycled} it is
+ * reset and returned to the pool of the factory that created it.
  * @author Dan Streetman
  */
 public class UsbIrpImpFactory implements UsbIrpFactory
 {
+	/** Constructor. */
+	public UsbIrpImpFactory() { this( ObjectPool.DEFAULT_MAX_SIZE ); }
+
+	/**
+	 * Constructor.
+	 * @param max The maximum number of recycled UsbIrpImps to keep.
+	 */
+	public UsbIrpImpFactory( int max ) { pool = new ObjectPool( max ); }
+
 	/** @return A new UsbIrp */
 	public UsbIrp createUsbIrp() { return createUsbIrpImp(); }
 
 	/** @return A new UsbIrpImp */
-	public UsbIrpImp createUsbIrpImp() { return new UsbIrpImp(); }
+	public UsbIrpImp createUsbIrpImp()
+	{
+		UsbIrpImp irp = (UsbIrpImp)pool.get();
+
+		if (null == irp)
+			return new UsbIrpImp( this );
+
+		irp.setRecycled( false );
+
+		return irp;
+	}
+
+	/**
+	 * Recycle a UsbIrpImp.
+	 * <p>
+	 * The UsbIrpImp is {@link com.ibm.jusb.UsbIrpImp#clean() cleaned} and, if it
+	 * was created by this factory, returned to the pool.  A UsbIrpImp that was submitted
+	 * but is not {@link com.ibm.jusb.UsbIrpImp#isCompleted() completed} is not recycled;
+	 * that includes one that is still completing, as it is no longer active before it is completed.
+	 * A submission that was rejected is never completed, so its UsbIrpImp is left to be garbage collected.
+	 * The caller must not use the UsbIrpImp after recycling it.
+	 * @param irp The UsbIrpImp to recycle.
+	 */
+	public void recycle( UsbIrpImp irp )
+	{
+		synchronized ( irp ) {
+			if (irp.isRecycled() || irp.isSubmittedAndNotCompleted())
+				return;
+
+			irp.clean();
+
+			if (this != irp.getUsbIrpImpFactory())
+				return;
+
+			irp.setRecycled( true );
+		}
+
+		pool.put( irp );
+	}
+
+	/** @return The maximum number of recycled UsbIrpImps to keep. */
+	public int getMaxPoolSize() { return pool.getMaxSize(); }
+
+	/** @param max The maximum number of recycled UsbIrpImps to keep. */
+	public void setMaxPoolSize( int max ) { pool.setMaxSize( max ); }
 
+	private ObjectPool pool = null;
 }
@@ -15,8 +15,21 @@ import javax.usb.*;
 import javax.usb.util.*;
 import javax.usb.os.*;
 
+import com.ibm.jusb.os.*;
+
 /**
  * Implementation of UsbOperations.
+ * <p>
+ * All Requests, synchronous and asynchronous, go through the device's
+ * {@link com.ibm.jusb.ControlRequestQueue ControlRequestQueue}, which keeps them in order
+ * with one in progress at a time.  Synchronous submissions wait only for their own
+ * Request to complete, so they do not block other Threads submitting to the device.
+ * <p>
+ * A RequestImp created to wrap a user Request for a synchronous submission is
+ * {@link com.ibm.jusb.RequestImp#recycle() recycled} once the submission completes.
+ * The Requests returned by the standard, vendor and class operations come from the
+ * {@link #getRequestImpFactory() RequestImpFactory}'s pool; the caller may
+ * {@link javax.usb.Request#recycle() recycle} them once done, so later operations reuse them.
  * @author E. Michael Maximilien
  * @author Dan Streetman
  */
@@ -25,6 +38,7 @@ public class UsbOperationsImp implements StandardOperations,VendorOperations,Cla
 	public UsbOperationsImp( UsbDeviceImp devImp )
 	{ 
 		usbDeviceImp = devImp;
+		controlRequestQueue = new ControlRequestQueue( devImp );
 	}
 
     //-------------------------------------------------------------------------
@@ -40,12 +54,15 @@ public class UsbOperationsImp implements StandardOperations,VendorOperations,Cla
 	/** @return The UsbDeviceImp */
 	public UsbDeviceImp getUsbDeviceImp() { return usbDeviceImp; }
 
+	/** @return The ControlRequestQueue */
+	public ControlRequestQueue getControlRequestQueue() { return controlRequestQueue; }
+
 	/**
 	 * Performs a synchronous standard operation by submitting the standard request object
 	 * @param request the Request object that is used for this submit
 	 * @exception javax.usb.RequestException if something goes wrong sumitting the request for this operation
 	 */
-	public synchronized void syncSubmit( Request request ) throws RequestException
+	public void syncSubmit( Request request ) throws RequestException
 	{
 		RequestImp requestImp = null;
 
@@ -57,12 +74,11 @@ public class UsbOperationsImp implements StandardOperations,VendorOperations,Cla
 
 		checkInterfaceClaimed(requestImp);
 
-		requestImp.setUsbDeviceImp(getUsbDeviceImp());
-
 		try {
-			getUsbDeviceImp().getUsbDeviceOsImp().syncSubmit( requestImp );
-		} catch ( UsbException uE ) {
-			throw new RequestException("Exception in Request submission", uE);
+			syncSubmitRequestImp( requestImp );
+		} finally {
+			if (request != requestImp)
+				requestImp.recycle();
 		}
 	}
 
@@ -70,36 +86,54 @@ public class UsbOperationsImp implements StandardOperations,VendorOperations,Cla
 	 * Performs a synchronous operation by submitting all the Request objects in the bundle.
 	 * No other request submission can be overlapped.  This means that the Request object in the
 	 * bundle are guaranteed to be sent w/o interruption.
+	 * <p>
+	 * Errors are set on each Request; the rest of the bundle is still submitted.
 	 * @param requestBundle the RequestBundle object that is used for this submit
 	 * @exception javax.usb.RequestException if something goes wrong submitting the request for this operation
 	 */
-	public synchronized void syncSubmit( RequestBundle requestBundle ) throws RequestException
+	public void syncSubmit( RequestBundle requestBundle ) throws RequestException
 	{
-		List list = new ArrayList();
+		RequestBundleSubmitResult result = asyncSubmit( requestBundle );
 
-		RequestIterator iterator = requestBundle.requestIterator();
+		try {
+			result.waitUntilCompleted();
 
-		while (iterator.hasNext()) {
-			Request request = iterator.nextRequest();
-			RequestImp requestImp = null;
+			if (!result.isCompleted())
+				throw new RequestException("Interrupted while waiting for RequestBundle to complete");
+		} finally {
+			List list = result.getRequestImps();
+			RequestIterator iterator = requestBundle.requestIterator();
 
-			try {
-				requestImp = (RequestImp)request;
-			} catch ( ClassCastException ccE ) {
-				requestImp = requestImpFactory.createRequestImp(request);
+			for (int i=0; i<list.size() && iterator.hasNext(); i++) {
+				RequestImp requestImp = (RequestImp)list.get(i);
+
+				if (iterator.nextRequest() != requestImp)
+					requestImp.recycle();
 			}
+		}
+	}
 
-			checkInterfaceClaimed(requestImp);
+	/**
+	 * Performs an asynchronous operation by submitting all the Request objects in the bundle.
+	 * <p>
+	 * As with the synchronous submission, no other Request is submitted in between the
+	 * Requests of the bundle.  Each Request is submitted after the previous one has completed,
+	 * unless the platform {@link com.ibm.jusb.os.UsbDeviceOsImp#isRequestPipeliningSupported() supports pipelining},
+	 * in which case the bundle is passed to it at once.  Errors are set on each Request; the returned
+	 * RequestBundleSubmitResult completes when all the Requests have completed.
+	 * @param requestBundle the RequestBundle object that is used for this submit
+	 * @return the RequestBundleSubmitResult for the bundle
+	 * @exception javax.usb.RequestException if something goes wrong submitting the request for this operation
+	 */
+	public RequestBundleSubmitResult asyncSubmit( RequestBundle requestBundle ) throws RequestException
+	{
+		List list = createRequestImpList( requestBundle );
 
-			requestImp.setUsbDeviceImp(getUsbDeviceImp());
-			list.add(requestImp);
-		}
+		RequestBundleSubmitResult result = new RequestBundleSubmitResult( requestBundle, list );
 
-		try {
-			getUsbDeviceImp().getUsbDeviceOsImp().syncSubmit( list );
-		} catch ( UsbException uE ) {
-			throw new RequestException("Exception in RequestBundle submission", uE);
-		}
+		getControlRequestQueue().submit( list, result );
+
+		return result;
 	}
 
 	/**
@@ -108,6 +142,25 @@ public class UsbOperationsImp implements StandardOperations,VendorOperations,Cla
 	 * @exception javax.usb.RequestException if something goes wrong sumitting the request for this operation
 	 */
 	public UsbOperations.SubmitResult asyncSubmit( Request request ) throws RequestException
+	{
+		return asyncSubmit( request, null );
+	}
+
+	/**
+	 * Performs an asynchronous operation, with a completion callback.
+	 * <p>
+	 * If another Request is in progress, this is queued and a failure to submit
+	 * it later is reported by completing it with a UsbException.
+	 * <p>
+	 * The UsbSubmissionListener is called, on the completing Thread, when the
+	 * Request completes.  The submission passed to the listener is the RequestImp
+	 * used internally, which is also returned.
+	 * @param request the Request object that is used for this submit
+	 * @param listener the UsbSubmissionListener, or null
+	 * @return the RequestImp used for the submission
+	 * @exception javax.usb.RequestException if something goes wrong sumitting the request for this operation
+	 */
+	public UsbOperations.SubmitResult asyncSubmit( Request request, UsbSubmissionListener listener ) throws RequestException
 	{
 		RequestImp requestImp = null;
 
@@ -119,15 +172,7 @@ public class UsbOperationsImp implements StandardOperations,VendorOperations,Cla
 
 		checkInterfaceClaimed(requestImp);
 
-		requestImp.setUsbDeviceImp(getUsbDeviceImp());
-
-		try {
-			getUsbDeviceImp().getUsbDeviceOsImp().asyncSubmit( requestImp );
-		} catch ( UsbException uE ) {
-			throw new RequestException("Could not submit Request", uE);
-		}
-
-		return requestImp;
+		return asyncSubmitRequestImp( requestImp, listener );
 	}
 
 	//**************************************************************************
@@ -343,6 +388,23 @@ public class UsbOperationsImp implements StandardOperations,VendorOperations,Cla
 		return vendorRequest;
 	}
 
+	/**
+	 * Prepare a vendor request for repeated submission.
+	 * <p>
+	 * The bmRequestType field bits 6..5 must be set to 0x02 for Vendor type.
+	 * @param bmRequestType the request type bitmap
+	 * @param requestType the specific request type
+	 * @param wValue the word feature selector value
+	 * @param wIndex Zero or Interface or Endpoint index
+	 * @param length the length of the data buffer to allocate
+	 * @return the PreparedRequest
+	 * @exception javax.usb.RequestException if the bmRequestType is not Vendor type
+	 */
+	public PreparedRequest prepareVendorRequest( byte bmRequestType, byte requestType, short wValue, short wIndex, int length ) throws RequestException
+	{
+		return prepareRequest( RequestConst.REQUESTTYPE_TYPE_VENDOR, bmRequestType, requestType, wValue, wIndex, length );
+	}
+
 	//**************************************************************************
 	// Class Operations
 
@@ -366,6 +428,24 @@ public class UsbOperationsImp implements StandardOperations,VendorOperations,Cla
 		return classRequest;
 	}
 
+	/**
+	 * Prepare a class request for repeated submission.
+	 * <p>
+	 * The bmRequestType field bits 6..5 must be set to 0x01 for Class type.
+	 * If this is an interface request, the interface must be claimed at each submission.
+	 * @param bmRequestType the request type bitmap
+	 * @param requestType the specific request type
+	 * @param wValue the word feature selector value
+	 * @param wIndex Zero or Interface or Endpoint index
+	 * @param length the length of the data buffer to allocate
+	 * @return the PreparedRequest
+	 * @exception javax.usb.RequestException if the bmRequestType is not Class type
+	 */
+	public PreparedRequest prepareClassRequest( byte bmRequestType, byte requestType, short wValue, short wIndex, int length ) throws RequestException
+	{
+		return prepareRequest( RequestConst.REQUESTTYPE_TYPE_CLASS, bmRequestType, requestType, wValue, wIndex, length );
+	}
+
 	//**************************************************************************
 	// HubClassOperations
 
@@ -391,22 +471,175 @@ public class UsbOperationsImp implements StandardOperations,VendorOperations,Cla
 	/** @return A RequestFactory */
 	protected RequestImpFactory getRequestImpFactory() { return requestImpFactory; }
 
+	/**
+	 * Get the RequestImps for a RequestBundle.
+	 * <p>
+	 * Each RequestImp is checked and set up for submission to this device.  All are
+	 * checked before any is set up, so if one can not be submitted none is left in progress.
+	 * @param requestBundle The RequestBundle.
+	 * @return The List of RequestImps.
+	 * @exception javax.usb.RequestException If a Request can not be submitted.
+	 */
+	protected List createRequestImpList( RequestBundle requestBundle ) throws RequestException
+	{
+		List list = new ArrayList();
+
+		RequestIterator iterator = requestBundle.requestIterator();
+
+		/* Validate all before marking any in progress, so a rejected bundle leaves none in progress. */
+		while (iterator.hasNext()) {
+			Request request = iterator.nextRequest();
+			RequestImp requestImp = null;
+
+			try {
+				requestImp = (RequestImp)request;
+			} catch ( ClassCastException ccE ) {
+				requestImp = requestImpFactory.createRequestImp(request);
+			}
+
+			list.add(requestImp);
+
+			try {
+				checkInterfaceClaimed(requestImp);
+			} catch ( RequestException rE ) {
+				RequestIterator requests = requestBundle.requestIterator();
+
+				for (int i=0; i<list.size() && requests.hasNext(); i++) {
+					if (requests.nextRequest() != list.get(i))
+						((RequestImp)list.get(i)).recycle();
+				}
+
+				throw rE;
+			}
+		}
+
+		for (int i=0; i<list.size(); i++)
+			((RequestImp)list.get(i)).setUsbDeviceImp(getUsbDeviceImp());
+
+		return list;
+	}
+
+	/**
+	 * Prepare a request for repeated submission.
+	 * @param type The required Type bits of the bmRequestType.
+	 * @param bmRequestType the request type bitmap
+	 * @param requestType the specific request type
+	 * @param wValue the word feature selector value
+	 * @param wIndex Zero or Interface or Endpoint index
+	 * @param length the length of the data buffer to allocate
+	 * @return the PreparedRequest
+	 * @exception javax.usb.RequestException if the bmRequestType is not the required type, or the length is not valid
+	 */
+	protected PreparedRequest prepareRequest( byte type, byte bmRequestType, byte requestType, short wValue, short wIndex, int length ) throws RequestException
+	{
+		if (type != (RequestConst.REQUESTTYPE_TYPE_MASK & bmRequestType))
+			throw new RequestException( "Request type 0x" + UsbUtil.toHexString(bmRequestType) + " is not the required type 0x" + UsbUtil.toHexString(type) );
+
+		if (0 > length || 0xffff < length)
+			throw new RequestException( "Data length " + length + " is not valid" );
+
+		byte[] data = 0 == length ? RequestImp.EMPTY_DATA : new byte[length];
+
+		RequestImp requestImp = new RequestImp( null );
+
+		requestImp.setRequestType( bmRequestType );
+		requestImp.setRequestCode( requestType );
+		requestImp.setValue( wValue );
+		requestImp.setIndex( wIndex );
+		requestImp.setData( data );
+
+		return new PreparedRequest( this, requestImp );
+	}
+
+	/**
+	 * Synchronously submit a RequestImp whose interface claim, if any, has been checked.
+	 * @param requestImp The RequestImp.
+	 * @exception javax.usb.RequestException If the submission fails or the waiting Thread is interrupted.
+	 */
+	protected void syncSubmitRequestImp( RequestImp requestImp ) throws RequestException
+	{
+		requestImp.setUsbDeviceImp(getUsbDeviceImp());
+
+		try {
+			getControlRequestQueue().submit( requestImp );
+		} catch ( UsbException uE ) {
+			setRejected( requestImp, uE );
+			throw new RequestException("Exception in Request submission", uE);
+		}
+
+		requestImp.waitUntilCompleted();
+
+		if (!requestImp.isCompleted())
+			throw new RequestException("Interrupted while waiting for Request to complete");
+
+		if (requestImp.isUsbException())
+			throw new RequestException("Exception in Request submission", requestImp.getUsbException());
+	}
+
+	/**
+	 * Asynchronously submit a RequestImp whose interface claim, if any, has been checked.
+	 * @param requestImp The RequestImp.
+	 * @param listener The UsbSubmissionListener, or null.
+	 * @return The RequestImp.
+	 * @exception javax.usb.RequestException If the submission was not accepted.
+	 */
+	protected UsbOperations.SubmitResult asyncSubmitRequestImp( RequestImp requestImp, UsbSubmissionListener listener ) throws RequestException
+	{
+		if (null != listener)
+			requestImp.setUsbSubmissionListener(listener);
+
+		requestImp.setUsbDeviceImp(getUsbDeviceImp());
+
+		try {
+			getControlRequestQueue().submit( requestImp );
+		} catch ( UsbException uE ) {
+			setRejected( requestImp, uE );
+			throw new RequestException("Could not submit Request", uE);
+		}
+
+		return requestImp;
+	}
+
+	/**
+	 * Set a RequestImp that the platform did not accept as completed.
+	 * <p>
+	 * This does not {@link com.ibm.jusb.RequestImp#complete() complete} it, as it was never
+	 * in progress; it only records the UsbException so the RequestImp may be reused or recycled.
+	 * @param requestImp The RequestImp.
+	 * @param uE The UsbException.
+	 */
+	protected void setRejected( RequestImp requestImp, UsbException uE )
+	{
+		requestImp.setUsbException(uE);
+		requestImp.setCompleted(true);
+	}
+
 	/** Check if interface claimed (if applicable) */
 	protected void checkInterfaceClaimed(RequestImp request) throws RequestException
 	{
 		if (!request.isInterfaceRequest())
 			return;
 
+		checkInterfaceClaimed((byte)request.getIndex());
+	}
+
+	/**
+	 * Check if an interface is claimed.
+	 * @param interfaceNumber The interface number.
+	 * @exception javax.usb.RequestException If the interface is not claimed.
+	 */
+	protected void checkInterfaceClaimed(byte interfaceNumber) throws RequestException
+	{
 		boolean claimed = false;
 
 		try {
-				claimed = getUsbDeviceImp().getActiveUsbConfigImp().getUsbInterfaceImp((byte)request.getIndex()).isJavaClaimed();
+				claimed = getUsbDeviceImp().getActiveUsbConfigImp().getUsbInterfaceImp(interfaceNumber).isJavaClaimed();
 		} catch ( NotActiveException naE ) {
-			throw new RequestException( "NotActiveException while checking for claim of UsbInterface " + UsbUtil.unsignedInt((byte)request.getIndex()) + " : " + naE.getMessage(), naE );
+			throw new RequestException( "NotActiveException while checking for claim of UsbInterface " + UsbUtil.unsignedInt(interfaceNumber) + " : " + naE.getMessage(), naE );
 		}
 
 		if (!claimed)
-				throw new RequestException( "Can not submit Request to unclaimed UsbInterface " + UsbUtil.unsignedInt((byte)request.getIndex()) );
+				throw new RequestException( "Can not submit Request to unclaimed UsbInterface " + UsbUtil.unsignedInt(interfaceNumber) );
 	}
 
 	//**************************************************************************
@@ -414,5 +647,6 @@ public class UsbOperationsImp implements StandardOperations,VendorOperations,Cla
 
 	protected UsbDeviceImp usbDeviceImp = null;
 	protected RequestImpFactory requestImpFactory = new RequestImpFactory();
+	protected ControlRequestQueue controlRequestQueue = null;
 
 }
@@ -0,0 +1,134 @@
+package com.ibm.jusb;
+
+/**
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.util.*;
+
+import javax.usb.*;
+
+/**
+ * Batch of a UsbPipe's completed submissions.
+ * <p>
+ * Each entry has the sequence number, data, offset, and length that a
+ * UsbPipeDataEvent would have.  The data is not copied; it is the submission's byte[].
+ * Batches are preallocated and reused, so a batch is only valid during the
+ * {@link com.ibm.jusb.UsbPipeDataBatchListener#dataBatchOccurred(UsbPipeDataBatch) listener call}.
+ * @author Dan Streetman
+ */
+public class UsbPipeDataBatch extends EventObject
+{
+	/**
+	 * Constructor.
+	 * @param source The UsbPipe.
+	 * @param capacity The maximum number of entries.
+	 */
+	public UsbPipeDataBatch( UsbPipe source, int capacity )
+	{
+		super( source );
+
+		sequenceNumbers = new long[capacity];
+		data = new byte[capacity][];
+		offsets = new int[capacity];
+		lengths = new int[capacity];
+	}
+
+	/** @return The UsbPipe. */
+	public UsbPipe getUsbPipe() { return (UsbPipe)getSource(); }
+
+	/** @return The number of entries. */
+	public int getSize() { return size; }
+
+	/** @return The maximum number of entries. */
+	public int getCapacity() { return lengths.length; }
+
+	/**
+	 * @param index The entry index.
+	 * @return The sequence number.
+	 */
+	public long getSequenceNumber( int index ) { return sequenceNumbers[checkIndex( index )]; }
+
+	/**
+	 * @param index The entry index.
+	 * @return The data.
+	 */
+	public byte[] getData( int index ) { return data[checkIndex( index )]; }
+
+	/**
+	 * @param index The entry index.
+	 * @return The offset of the valid data.
+	 */
+	public int getOffset( int index ) { return offsets[checkIndex( index )]; }
+
+	/**
+	 * @param index The entry index.
+	 * @return The length of valid data.
+	 */
+	public int getDataLength( int index ) { return lengths[checkIndex( index )]; }
+
+	//**************************************************************************
+	// Package methods
+
+	/**
+	 * Add an entry.
+	 * @param sn The sequence number.
+	 * @param d The data.
+	 * @param offset The offset of the valid data.
+	 * @param length The length of valid data.
+	 */
+	void add( long sn, byte[] d, int offset, int length )
+	{
+		sequenceNumbers[size] = sn;
+		data[size] = d;
+		offsets[size] = offset;
+		lengths[size] = length;
+		size++;
+	}
+
+	/** Remove all entries. */
+	void clear()
+	{
+		for (int i=0; i<size; i++)
+			data[i] = null;
+
+		size = 0;
+	}
+
+	//**************************************************************************
+	// Private methods
+
+	/**
+	 * Check an index.
+	 * @param index The index.
+	 * @return The index.
+	 * @throws IndexOutOfBoundsException If the index is not valid.
+	 */
+	private int checkIndex( int index )
+	{
+		if (0 > index || index >= size)
+			throw new IndexOutOfBoundsException("Index " + index + " not in batch of " + size);
+
+		return index;
+	}
+
+	//**************************************************************************
+	// Instance variables
+
+	private long[] sequenceNumbers = null;
+	private byte[][] data = null;
+	private int[] offsets = null;
+	private int[] lengths = null;
+	private int size = 0;
+
+	/** The time the first entry was added, from System.nanoTime(). */
+	long queueTime = 0;
+
+	/** If the queue time was recorded, for listener metrics. */
+	boolean timed = false;
+}
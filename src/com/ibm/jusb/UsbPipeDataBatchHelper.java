@@ -0,0 +1,283 @@
+package com.ibm.jusb;
+
+/**
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.util.*;
+
+import javax.usb.*;
+import com.ibm.jusb.util.*;
+
+/**
+ * Helper class to coalesce a UsbPipe's data into batches for UsbPipeDataBatchListeners.
+ * <p>
+ * Completions are added to the filling batch.  When a batch is delivered, the filling
+ * batch is swapped with the spare batch, so completions keep being added while the
+ * listeners are called; the two batches are preallocated and reused.  A batch is delivered
+ * once it holds the {@link #getMaxBatchSize() maximum} number of completions, or once its first
+ * completion has waited the {@link #getMaxDelay() maximum delay}; with no delay, each delivery
+ * takes all completions available when it runs.  If the filling batch is full while the other
+ * batch is still being delivered, the completing Thread waits, so listeners must not wait for
+ * later submissions on this pipe to complete.  An interrupted completing Thread keeps waiting,
+ * and its interrupted status is set when it returns.
+ * <p>
+ * Delivery runs on the {@link com.ibm.jusb.util.RunnableDispatcher#getSharedRunnableDispatcher() shared}
+ * RunnableDispatcher.  With a delay, a Timer shared by all helpers dispatches the delivery once
+ * the delay expires, or it is dispatched as soon as the batch is full; no Thread waits for the delay.
+ * @author Dan Streetman
+ */
+public class UsbPipeDataBatchHelper extends EventListenerHelper
+{
+	/**
+	 * Constructor.
+	 * @param pipe The UsbPipe.
+	 */
+	public UsbPipeDataBatchHelper( UsbPipe pipe )
+	{
+		usbPipe = pipe;
+		filling = new UsbPipeDataBatch( pipe, maxBatchSize );
+		spare = new UsbPipeDataBatch( pipe, maxBatchSize );
+	}
+
+	//**************************************************************************
+	// Public methods
+
+	/**
+	 * Add a completion.
+	 * @param sn The sequence number.
+	 * @param data The data.
+	 * @param offset The offset of the valid data.
+	 * @param length The length of valid data.
+	 */
+	public void dataOccurred( long sn, byte[] data, int offset, int length )
+	{
+		if (!hasListeners())
+			return;
+
+		boolean dispatch = false;
+		boolean interrupted = false;
+
+		synchronized ( lock ) {
+			while (filling.getSize() >= filling.getCapacity()) {
+				try { lock.wait(); }
+				catch ( InterruptedException iE ) { interrupted = true; }
+			}
+
+			if (0 == filling.getSize()) {
+				firstTime = System.currentTimeMillis();
+				filling.timed = isMetricsEnabled();
+				if (filling.timed)
+					filling.queueTime = System.nanoTime();
+			}
+
+			filling.add( sn, data, offset, length );
+
+			if (!scheduled) {
+				scheduled = true;
+				dispatch = scheduleDelivery();
+			} else if (null != flushTask && filling.getSize() >= filling.getCapacity()) {
+				/* Full before the delay expired; deliver it now. */
+				flushTask.cancel();
+				flushTask = null;
+				dispatch = true;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		if (dispatch)
+			RunnableDispatcher.getSharedRunnableDispatcher().dispatch( deliverer );
+	}
+
+	/** @return The maximum number of completions in a batch. */
+	public int getMaxBatchSize() { return maxBatchSize; }
+
+	/**
+	 * Set the maximum number of completions in a batch.
+	 * <p>
+	 * This takes effect as the batches are reused.
+	 * @param size The maximum batch size.
+	 * @throws IllegalArgumentException If the size is less than 1.
+	 */
+	public void setMaxBatchSize( int size )
+	{
+		if (1 > size)
+			throw new IllegalArgumentException("Max batch size cannot be less than 1");
+
+		maxBatchSize = size;
+	}
+
+	/** @return The maximum number of milliseconds a completion waits for its batch to fill. */
+	public long getMaxDelay() { return maxDelay; }
+
+	/**
+	 * Set the maximum number of milliseconds a completion waits for its batch to fill.
+	 * @param delay The maximum delay, or 0 to deliver without waiting.
+	 * @throws IllegalArgumentException If the delay is less than 0.
+	 */
+	public void setMaxDelay( long delay )
+	{
+		if (0 > delay)
+			throw new IllegalArgumentException("Max delay cannot be less than 0");
+
+		maxDelay = delay;
+	}
+
+	/** @return The number of batches delivered. */
+	public long getBatchCount() { synchronized ( lock ) { return batchCount; } }
+
+	//**************************************************************************
+	// Private methods
+
+	/**
+	 * Schedule delivery of the filling batch.
+	 * <p>
+	 * If the filling batch is not full and its first completion has not waited
+	 * the maximum delay, a FlushTask is scheduled to dispatch the delivery once it has.
+	 * The caller must hold the lock.
+	 * @return If the delivery should be dispatched now.
+	 */
+	private boolean scheduleDelivery()
+	{
+		long delay = maxDelay;
+
+		if (0 == delay || filling.getSize() >= filling.getCapacity())
+			return true;
+
+		long remaining = firstTime + delay - System.currentTimeMillis();
+
+		if (0 >= remaining)
+			return true;
+
+		flushTask = new FlushTask();
+		getFlushTimer().schedule( flushTask, remaining );
+
+		return false;
+	}
+
+	/**
+	 * Get the Timer used to delay deliveries.
+	 * @return The shared Timer.
+	 */
+	private static synchronized Timer getFlushTimer()
+	{
+		if (null == flushTimer)
+			flushTimer = new Timer( "UsbPipeDataBatchHelper Timer", true );
+
+		return flushTimer;
+	}
+
+	//**************************************************************************
+	// Instance variables
+
+	private UsbPipe usbPipe = null;
+
+	private Object lock = new Object();
+	private UsbPipeDataBatch filling = null;
+	private UsbPipeDataBatch spare = null;
+	private boolean scheduled = false;
+	private FlushTask flushTask = null;
+	private long firstTime = 0;
+	private long batchCount = 0;
+
+	private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	private volatile long maxDelay = 0;
+
+	private Runnable deliverer = new Deliverer();
+
+	//**************************************************************************
+	// Class variables
+
+	private static Timer flushTimer = null;
+
+	//**************************************************************************
+	// Inner classes
+
+	/**
+	 * TimerTask that dispatches the delivery once the delay has expired.
+	 */
+	private class FlushTask extends TimerTask
+	{
+		public void run()
+		{
+			synchronized ( lock ) {
+				/* The batch filled up, and was dispatched, first. */
+				if (this != flushTask)
+					return;
+
+				flushTask = null;
+			}
+
+			RunnableDispatcher.getSharedRunnableDispatcher().dispatch( deliverer );
+		}
+	}
+
+	/**
+	 * Runnable that delivers the filling batch.
+	 */
+	private class Deliverer implements Runnable
+	{
+		public void run()
+		{
+			UsbPipeDataBatch batch = null;
+
+			synchronized ( lock ) {
+				batch = filling;
+				filling = spare;
+				spare = null;
+				batchCount++;
+				lock.notifyAll();
+			}
+
+			try {
+				ListenerEntry[] entries = getListenerEntries();
+
+				for (int i=0; i<entries.length; i++) {
+					long start = batch.timed ? System.nanoTime() : 0;
+
+					/* A failing listener must not stop the others. */
+					try { ((UsbPipeDataBatchListener)entries[i].getEventListener()).dataBatchOccurred( batch ); }
+					catch ( RuntimeException rE ) { }
+
+					if (batch.timed)
+						entries[i].getListenerMetrics().record( start - batch.queueTime, System.nanoTime() - start );
+				}
+			} finally {
+				boolean dispatch = false;
+
+				batch.clear();
+
+				if (batch.getCapacity() != maxBatchSize)
+					batch = new UsbPipeDataBatch( usbPipe, maxBatchSize );
+
+				synchronized ( lock ) {
+					spare = batch;
+
+					if (0 == filling.getSize() && filling.getCapacity() != maxBatchSize)
+						filling = new UsbPipeDataBatch( usbPipe, maxBatchSize );
+
+					scheduled = 0 < filling.getSize();
+					dispatch = scheduled && scheduleDelivery();
+					lock.notifyAll();
+				}
+
+				if (dispatch)
+					RunnableDispatcher.getSharedRunnableDispatcher().dispatch( this );
+			}
+		}
+	}
+
+	//**************************************************************************
+	// Class constants
+
+	/** The default maximum batch size. */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+}
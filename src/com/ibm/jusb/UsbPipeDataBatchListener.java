@@ -0,0 +1,33 @@
+package com.ibm.jusb;
+
+/**
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.util.*;
+
+/**
+ * Interface for batched notification of a UsbPipe's data.
+ * <p>
+ * Instead of one UsbPipeDataEvent for each completed submission, this listener
+ * gets all completions that are available when it is called in one
+ * {@link com.ibm.jusb.UsbPipeDataBatch batch}.  Error events are not batched; use a
+ * UsbPipeListener to get those.
+ * @author Dan Streetman
+ */
+public interface UsbPipeDataBatchListener extends EventListener
+{
+	/**
+	 * Data was received or sent.
+	 * <p>
+	 * The batch is reused, and is only valid until this returns.
+	 * @param batch The batch of completions.
+	 */
+	public void dataBatchOccurred(UsbPipeDataBatch batch);
+
+}
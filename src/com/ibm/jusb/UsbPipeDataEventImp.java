@@ -0,0 +1,43 @@
+package com.ibm.jusb;
+
+/**
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import javax.usb.*;
+import javax.usb.event.*;
+
+/**
+ * UsbPipeDataEvent that reports the offset of its data.
+ * <p>
+ * A submission may use only a section of its byte[]; the valid data
+ * in this event's {@link #getData() data} starts at the {@link #getOffset() offset}
+ * and continues for the {@link #getDataLength() data length}.
+ * @author Dan Streetman
+ */
+public class UsbPipeDataEventImp extends UsbPipeDataEvent
+{
+	/**
+	 * Constructor.
+	 * @param source The UsbPipe.
+	 * @param sn The sequence number.
+	 * @param data The data.
+	 * @param offset The offset of the valid data.
+	 * @param length The length of valid data.
+	 */
+	public UsbPipeDataEventImp( UsbPipe source, long sn, byte[] data, int offset, int length )
+	{
+		super( source, sn, data, length );
+		this.offset = offset;
+	}
+
+	/** @return The offset of the valid data. */
+	public int getOffset() { return offset; }
+
+	private int offset = 0;
+}
@@ -0,0 +1,118 @@
+package com.ibm.jusb;
+
+/**
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.util.*;
+
+import javax.usb.event.*;
+
+import com.ibm.jusb.util.*;
+
+/**
+ * EventFilter for UsbPipeListeners.
+ * <p>
+ * This selects data and/or error events, and data events with at least a
+ * {@link #getMinimumLength() minimum length}.  Data events are tested before the
+ * UsbPipeDataEvent is created; subclasses may override {@link #acceptData(byte[],int,int) acceptData}
+ * to test the data itself.
+ * @author Dan Streetman
+ */
+public class UsbPipeEventFilter implements EventFilter
+{
+	/**
+	 * Constructor.
+	 * @param types The event types to accept.
+	 */
+	public UsbPipeEventFilter( int types ) { this( types, 0 ); }
+
+	/**
+	 * Constructor.
+	 * @param types The event types to accept.
+	 * @param minimumLength The minimum length of accepted data events.
+	 */
+	public UsbPipeEventFilter( int types, int minimumLength )
+	{
+		eventTypes = types;
+		minLength = minimumLength;
+	}
+
+	//**************************************************************************
+	// Public methods
+
+	/**
+	 * If the event should be fired to the listener.
+	 * @param event The event.
+	 * @return If the event should be fired to the listener.
+	 */
+	public boolean accept( EventObject event )
+	{
+		if (event instanceof UsbPipeErrorEvent)
+			return acceptError( (UsbPipeErrorEvent)event );
+
+		if (event instanceof UsbPipeDataEventImp) {
+			UsbPipeDataEventImp dataEvent = (UsbPipeDataEventImp)event;
+			return acceptData( dataEvent.getData(), dataEvent.getOffset(), dataEvent.getDataLength() );
+		}
+
+		if (event instanceof UsbPipeDataEvent) {
+			UsbPipeDataEvent dataEvent = (UsbPipeDataEvent)event;
+			return acceptData( dataEvent.getData(), 0, dataEvent.getDataLength() );
+		}
+
+		return true;
+	}
+
+	/**
+	 * If a data event should be fired to the listener.
+	 * @param data The data.
+	 * @param offset The offset of the valid data.
+	 * @param length The length of valid data.
+	 * @return If the data event should be fired to the listener.
+	 */
+	public boolean acceptData( byte[] data, int offset, int length )
+	{
+		return 0 != (DATA_EVENTS & eventTypes) && length >= minLength;
+	}
+
+	/**
+	 * If an error event should be fired to the listener.
+	 * @param event The error event.
+	 * @return If the error event should be fired to the listener.
+	 */
+	public boolean acceptError( UsbPipeErrorEvent event ) { return 0 != (ERROR_EVENTS & eventTypes); }
+
+	/** @return The event types to accept. */
+	public int getEventTypes() { return eventTypes; }
+
+	/** @return The minimum length of accepted data events. */
+	public int getMinimumLength() { return minLength; }
+
+	//**************************************************************************
+	// Instance variables
+
+	private int eventTypes = ALL_EVENTS;
+	private int minLength = 0;
+
+	//**************************************************************************
+	// Class constants
+
+	/** Accept data events. */
+	public static final int DATA_EVENTS = 0x01;
+	/** Accept error events. */
+	public static final int ERROR_EVENTS = 0x02;
+	/** Accept all events. */
+	public static final int ALL_EVENTS = DATA_EVENTS | ERROR_EVENTS;
+
+	/** Filter accepting only error events. */
+	public static final UsbPipeEventFilter ERRORS_ONLY = new UsbPipeEventFilter( ERROR_EVENTS );
+	/** Filter accepting only data events. */
+	public static final UsbPipeEventFilter DATA_ONLY = new UsbPipeEventFilter( DATA_EVENTS );
+
+}
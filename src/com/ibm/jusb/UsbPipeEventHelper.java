@@ -18,6 +18,15 @@ import com.ibm.jusb.util.*;
 
 /**
  * Helper class to handle multiplexing UsbPipeEvents to listeners.
+ * <p>
+ * If an {@link #setEventRingSize(UsbPipe,int) event ring} is set, events fired in the
+ * {@link com.ibm.jusb.util.EventListenerHelper#DISPATCH_QUEUED queued} dispatch mode are
+ * published to its preallocated slots instead of the RunnableManager, so
+ * {@link #dataEventOccurred(UsbPipe,long,byte[],int,int) data events} allocate nothing.
+ * The UsbPipeDataEvent passed to listeners is then reused, and is only valid until the listener returns.
+ * <p>
+ * Listeners added with a {@link com.ibm.jusb.UsbPipeEventFilter UsbPipeEventFilter} are tested
+ * before the event is queued; data events are tested before the UsbPipeDataEvent is created.
  * @author Dan Streetman
  */
 public class UsbPipeEventHelper extends EventListenerHelper implements UsbPipeListener
@@ -28,7 +37,67 @@ public class UsbPipeEventHelper extends EventListenerHelper implements UsbPipeLi
 		if (!hasListeners())
 			return;
 
-		addRunnable( new ErrorEvent(event) );
+		ListenerEntry[] entries = getListenerEntries(event);
+
+		if (0 == entries.length)
+			return;
+
+		PipeEventRing ring = eventRing;
+
+		if (null != ring && DISPATCH_QUEUED == getDispatchMode()) {
+			long sequence = ring.claim();
+			EventSlot slot = (EventSlot)ring.getSlot(sequence);
+
+			slot.errorEvent = event;
+			slot.entries = entries;
+			slot.timed = isMetricsEnabled();
+			if (slot.timed)
+				slot.queueTime = System.nanoTime();
+			ring.publish(sequence);
+			return;
+		}
+
+		fireEvent( new ErrorEvent(event), entries );
+	}
+
+	/**
+	 * Fire a data event.
+	 * <p>
+	 * If the event ring is in use, the event is published to its next slot;
+	 * otherwise a new {@link com.ibm.jusb.UsbPipeDataEventImp UsbPipeDataEventImp} is fired.
+	 * @param source The UsbPipe.
+	 * @param sn The sequence number.
+	 * @param data The data.
+	 * @param offset The offset of the valid data.
+	 * @param length The length of valid data.
+	 */
+	public void dataEventOccurred(UsbPipe source, long sn, byte[] data, int offset, int length)
+	{
+		if (!hasListeners())
+			return;
+
+		ListenerEntry[] entries = getDataListenerEntries(source, sn, data, offset, length);
+
+		if (0 == entries.length)
+			return;
+
+		PipeEventRing ring = eventRing;
+
+		if (null != ring && DISPATCH_QUEUED == getDispatchMode()) {
+			long sequence = ring.claim();
+			EventSlot slot = (EventSlot)ring.getSlot(sequence);
+
+			slot.dataEvent.set(sn, data, offset, length);
+			slot.errorEvent = null;
+			slot.entries = entries;
+			slot.timed = isMetricsEnabled();
+			if (slot.timed)
+				slot.queueTime = System.nanoTime();
+			ring.publish(sequence);
+			return;
+		}
+
+		fireEvent( new DataEvent(new UsbPipeDataEventImp(source, sn, data, offset, length)), entries );
 	}
 
 	/** @param event The Event to fire. */
@@ -37,21 +106,105 @@ public class UsbPipeEventHelper extends EventListenerHelper implements UsbPipeLi
 		if (!hasListeners())
 			return;
 
-		addRunnable( new DataEvent(event) );
+		ListenerEntry[] entries = getListenerEntries(event);
+
+		if (0 == entries.length)
+			return;
+
+		fireEvent( new DataEvent(event), entries );
+	}
+
+	/** @return The number of slots in the event ring, or 0 if there is no event ring. */
+	public int getEventRingSize()
+	{
+		PipeEventRing ring = eventRing;
+
+		return null == ring ? 0 : ring.getCapacity();
+	}
+
+	/**
+	 * Set the number of slots in the event ring.
+	 * <p>
+	 * If the size is 0 the event ring is not used.  Events already published
+	 * to a previous event ring are still fired.
+	 * @param source The UsbPipe that is the source of the events.
+	 * @param size The number of slots, which must be 0 or a power of two.
+	 * @throws IllegalArgumentException If the size is not 0 or a power of two.
+	 */
+	public synchronized void setEventRingSize(UsbPipe source, int size)
+	{
+		if (0 == size) {
+			eventRing = null;
+			return;
+		}
+
+		if (0 > size || 0 != (size & (size - 1)))
+			throw new IllegalArgumentException("Event ring size must be a power of two");
+
+		EventSlot[] slots = new EventSlot[size];
+
+		for (int i=0; i<size; i++)
+			slots[i] = new EventSlot(source);
+
+		eventRing = new PipeEventRing(slots);
+	}
+
+	/** @return The number of times the event ring was full when an event was fired. */
+	public long getEventRingWaitCount()
+	{
+		PipeEventRing ring = eventRing;
+
+		return null == ring ? 0 : ring.getWaitCount();
 	}
 
-//FIXME - event firing should use a list copy or be sync'd with add/remove of listeners
+	/**
+	 * Get the listener entries whose filters accept data.
+	 * <p>
+	 * Filters other than UsbPipeEventFilters are tested with a new UsbPipeDataEventImp.
+	 * @param source The UsbPipe.
+	 * @param sn The sequence number.
+	 * @param data The data.
+	 * @param offset The offset of the valid data.
+	 * @param length The length of valid data.
+	 * @return The listener entries accepting the data.
+	 */
+	protected ListenerEntry[] getDataListenerEntries(UsbPipe source, long sn, byte[] data, int offset, int length)
+	{
+		ListenerEntry[] array = getListenerEntries();
+
+		if (!hasFilters())
+			return array;
+
+		int count = 0;
+		boolean[] accepted = new boolean[array.length];
+
+		for (int i=0; i<array.length; i++) {
+			EventFilter filter = array[i].getEventFilter();
+
+			if (null == filter)
+				accepted[i] = true;
+			else if (filter instanceof UsbPipeEventFilter)
+				accepted[i] = ((UsbPipeEventFilter)filter).acceptData(data, offset, length);
+			else
+				accepted[i] = filter.accept(new UsbPipeDataEventImp(source, sn, data, offset, length));
+
+			if (accepted[i])
+				count++;
+		}
+
+		return selectListenerEntries(array, accepted, count);
+	}
+
+	private volatile PipeEventRing eventRing = null;
 
 	private class ErrorEvent extends EventRunnable
 	{
 		public ErrorEvent() { super(); }
 		public ErrorEvent(EventObject e) { super(e); }
 
-		public void run()
+		public void fire(EventListener listener)
 		{
-			List list = getEventListeners();
-			for (int i=0; i<list.size(); i++)
-				((UsbPipeListener)list.get(i)).errorEventOccurred((UsbPipeErrorEvent)event);
+			((UsbPipeListener)listener).errorEventOccurred((UsbPipeErrorEvent)event);
 		}
 	}
 
@@ -60,11 +213,79 @@ public class UsbPipeEventHelper extends EventListenerHelper implements UsbPipeLi
 		public DataEvent() { super(); }
 		public DataEvent(EventObject e) { super(e); }
 
-		public void run()
+		public void fire(EventListener listener)
 		{
-			List list = getEventListeners();
-			for (int i=0; i<list.size(); i++)
-				((UsbPipeListener)list.get(i)).dataEventOccurred((UsbPipeDataEvent)event);
+			((UsbPipeListener)listener).dataEventOccurred((UsbPipeDataEvent)event);
+		}
+	}
+
+	private static class EventSlot
+	{
+		public EventSlot(UsbPipe source) { dataEvent = new SlotDataEvent(source); }
+
+		public SlotDataEvent dataEvent = null;
+		public UsbPipeErrorEvent errorEvent = null;
+		public ListenerEntry[] entries = null;
+		public boolean timed = false;
+		public long queueTime = 0;
+	}
+
+	/**
+	 * Reusable UsbPipeDataEvent.
+	 */
+	private static class SlotDataEvent extends UsbPipeDataEventImp
+	{
+		public SlotDataEvent(UsbPipe source) { super(source, 0, null, 0, 0); }
+
+		public void set(long sn, byte[] d, int o, int l)
+		{
+			sequenceNumber = sn;
+			data = d;
+			offset = o;
+			length = l;
+		}
+
+		public long getSequenceNumber() { return sequenceNumber; }
+		public byte[] getData() { return data; }
+		public int getOffset() { return offset; }
+		public int getDataLength() { return length; }
+
+		private long sequenceNumber = 0;
+		private byte[] data = null;
+		private int offset = 0;
+		private int length = 0;
+	}
+
+	private static class PipeEventRing extends EventRing
+	{
+		public PipeEventRing(EventSlot[] slots) { super(slots, RunnableDispatcher.getSharedRunnableDispatcher()); }
+
+		protected void consume(Object object, long sequence, boolean endOfBatch)
+		{
+			EventSlot slot = (EventSlot)object;
+			ListenerEntry[] entries = slot.entries;
+
+			slot.entries = null;
+
+			for (int i=0; i<entries.length; i++) {
+				UsbPipeListener listener = (UsbPipeListener)entries[i].getEventListener();
+				long start = slot.timed ? System.nanoTime() : 0;
+
+				try {
+					if (null == slot.errorEvent)
+						listener.dataEventOccurred(slot.dataEvent);
+					else
+						listener.errorEventOccurred(slot.errorEvent);
+				} catch ( RuntimeException rE ) {
+					/* A failing listener must not keep the event from the others. */
+				} finally {
+					if (slot.timed)
+						entries[i].getListenerMetrics().record(start - slot.queueTime, System.nanoTime() - start);
+				}
+			}
+
+			slot.errorEvent = null;
+			slot.dataEvent.set(0, null, 0, 0);
 		}
 	}
-}                                                                             
+}
@@ -10,6 +10,8 @@ package com.ibm.jusb;
  */
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.nio.*;
 
 import javax.usb.*;
 import javax.usb.event.*;
@@ -20,6 +22,11 @@ import com.ibm.jusb.util.*;
 
 /**
  * UsbPipe platform-independent implementation.
+ * <p>
+ * The submission methods may be called concurrently from multiple Threads without
+ * external locking.  Each submission is assigned a unique sequence number, in the
+ * order the submissions are set up; the UsbIrps of a List submission get consecutive
+ * sequence numbers.
  * @author Dan Streetman
  * @author E. Michael Maximilien
  */
@@ -45,6 +52,9 @@ public class UsbPipeImp extends Object implements UsbPipe
 	/** @return the UsbPipeOsImp object */
 	public UsbPipeOsImp getUsbPipeOsImp() { return usbPipeOsImp; }
 
+	/** @return The UsbIrpImpFactory used for this pipe's internal UsbIrpImps. */
+	public UsbIrpImpFactory getUsbIrpImpFactory() { return usbIrpImpFactory; }
+
 	/** @return if this UsbPipe is active */
 	public boolean isActive() { return getUsbEndpoint().getUsbInterface().isActive(); }
 
@@ -55,10 +65,10 @@ public class UsbPipeImp extends Object implements UsbPipe
 	public boolean isClosed() { return !open; }
 
 	/** @return if this UsbPipe is busy */
-	public boolean isBusy() { return 0 != submissionCount; }
+	public boolean isBusy() { return 0 != submissionCount.get(); }
 
 	/** @return if this UsbPipe is busy */
-	public boolean isIdle() { return 0 == submissionCount; }
+	public boolean isIdle() { return 0 == submissionCount.get(); }
 
 	/** @return if this UsbPipe is in an error state */
 	public boolean isInError() { return 0 != getErrorCode(); }
@@ -72,12 +82,15 @@ public class UsbPipeImp extends Object implements UsbPipe
 	/**
 	 * Return the current sequence number.
 	 * <p>
-	 * The platform implementation is responsible for keeping track of the
-	 * current sequence number; this allows it to only assign sequence numbers
-	 * to submissions that are successfully submitted.
+	 * This is the sequence number the next submission will be assigned.  Each submission
+	 * reserves its sequence number when it is {@link #setupUsbIrpImp(UsbIrpImp) set up}, before it is passed
+	 * to the UsbPipeOsImp, so a submission that is not accepted still uses up its number;
+	 * the sequence numbers of accepted submissions may have gaps.  A List submission reserves
+	 * a consecutive block.  Submissions from one Thread are numbered in the order they were made,
+	 * but submissions from different Threads are numbered in no particular order.
 	 * @return the current sequence number of this UsbPipe
 	 */
-	public long getSequenceNumber() { return sequenceNumber; }
+	public long getSequenceNumber() { return sequenceNumber.get(); }
 
 	/** @return the UsbDevice associated with this pipe */
 	public UsbDevice getUsbDevice() { return getUsbDeviceImp(); }
@@ -139,6 +152,9 @@ public class UsbPipeImp extends Object implements UsbPipe
 	public void close()
 	{
 		if (isActive() && isOpen()) {
+			if (null != usbPipeStreamReader)
+				usbPipeStreamReader.stop();
+
 			abortAllSubmissions();
 			getUsbPipeOsImp().close();
 
@@ -148,6 +164,8 @@ public class UsbPipeImp extends Object implements UsbPipe
 
 	/**
 	 * Synchonously submits this byte[] array to the UsbPipe.
+	 * <p>
+	 * The UsbIrpImp used internally is recycled after completion.
 	 */
 	public int syncSubmit( byte[] data ) throws UsbException
 	{
@@ -155,13 +173,47 @@ public class UsbPipeImp extends Object implements UsbPipe
 
 		UsbIrpImp usbIrpImp = createUsbIrpImp();
 		usbIrpImp.setData(data);
-		syncSubmit(usbIrpImp);
 
-		return usbIrpImp.getDataLength();
+		try {
+			syncSubmit(usbIrpImp);
+
+			return usbIrpImp.getDataLength();
+		} finally {
+			usbIrpImp.recycle();
+		}
+	}
+
+	/**
+	 * Synchonously submits a section of this byte[] array to the UsbPipe.
+	 * <p>
+	 * The byte[] is not copied; only the specified section is transferred.
+	 * The UsbIrpImp used internally is recycled after completion.
+	 * @param data The data.
+	 * @param offset The offset of the first byte to transfer.
+	 * @param length The number of bytes to transfer.
+	 * @return The number of bytes transferred.
+	 */
+	public int syncSubmit( byte[] data, int offset, int length ) throws UsbException
+	{
+		checkOpen();
+
+		UsbIrpImp usbIrpImp = createUsbIrpImp();
+		usbIrpImp.setData(data, offset, length);
+
+		try {
+			syncSubmit(usbIrpImp);
+
+			return usbIrpImp.getDataLength();
+		} finally {
+			usbIrpImp.recycle();
+		}
 	}
 
 	/**
 	 * Asynchonously submits this byte[] array to the UsbPipe.
+	 * <p>
+	 * The returned SubmitResult should be {@link javax.usb.UsbPipe.SubmitResult#recycle() recycled}
+	 * once it is no longer needed, so it can be reused by later submissions.
 	 */
 	public UsbPipe.SubmitResult asyncSubmit( byte[] data ) throws UsbException
 	{
@@ -174,8 +226,81 @@ public class UsbPipeImp extends Object implements UsbPipe
 		return usbIrpImp;
 	}
 
+	/**
+	 * Asynchonously submits a section of this byte[] array to the UsbPipe.
+	 * <p>
+	 * See {@link #syncSubmit(byte[],int,int) syncSubmit(byte[],int,int)}.
+	 * The returned SubmitResult should be {@link javax.usb.UsbPipe.SubmitResult#recycle() recycled}
+	 * once it is no longer needed.
+	 * @param data The data.
+	 * @param offset The offset of the first byte to transfer.
+	 * @param length The number of bytes to transfer.
+	 * @return The SubmitResult.
+	 */
+	public UsbPipe.SubmitResult asyncSubmit( byte[] data, int offset, int length ) throws UsbException
+	{
+		checkOpen();
+
+		UsbIrpImp usbIrpImp = createUsbIrpImp();
+		usbIrpImp.setData(data, offset, length);
+		asyncSubmit(usbIrpImp);
+
+		return usbIrpImp;
+	}
+
+	/**
+	 * Synchonously submits this ByteBuffer to the UsbPipe.
+	 * <p>
+	 * The data transferred is the buffer's remaining bytes.  The buffer's position
+	 * and limit are not changed.  If the UsbPipeOsImp supports ByteBuffers, a direct buffer
+	 * is passed to it without copying.  The UsbIrpImp used internally is recycled after completion.
+	 * @param buffer The ByteBuffer.
+	 * @return The number of bytes transferred.
+	 */
+	public int syncSubmit( ByteBuffer buffer ) throws UsbException
+	{
+		checkOpen();
+
+		UsbIrpImp usbIrpImp = createUsbIrpImp();
+		usbIrpImp.setBuffer(buffer);
+
+		try {
+			syncSubmit(usbIrpImp);
+
+			return usbIrpImp.getDataLength();
+		} finally {
+			usbIrpImp.recycle();
+		}
+	}
+
+	/**
+	 * Asynchonously submits this ByteBuffer to the UsbPipe.
+	 * <p>
+	 * See {@link #syncSubmit(ByteBuffer) syncSubmit(ByteBuffer)}.
+	 * The returned SubmitResult should be {@link javax.usb.UsbPipe.SubmitResult#recycle() recycled}
+	 * once it is no longer needed.
+	 * @param buffer The ByteBuffer.
+	 * @return The SubmitResult.
+	 */
+	public UsbPipe.SubmitResult asyncSubmit( ByteBuffer buffer ) throws UsbException
+	{
+		checkOpen();
+
+		UsbIrpImp usbIrpImp = createUsbIrpImp();
+		usbIrpImp.setBuffer(buffer);
+		asyncSubmit(usbIrpImp);
+
+		return usbIrpImp;
+	}
+
 	/**
 	 * Synchronous submission using a UsbIrp.
+	 * <p>
+	 * A {@link com.ibm.jusb.ScatterGatherUsbIrpImp ScatterGatherUsbIrpImp} is passed to
+	 * the UsbPipeOsImp as a single scatter-gather submission.
+	 * If the waiting Thread is interrupted, a
+	 * {@link com.ibm.jusb.os.UsbSubmissionInterruptedException UsbSubmissionInterruptedException}
+	 * is thrown and the UsbIrp is left in progress; it completes normally later.
 	 */
 	public void syncSubmit( UsbIrp irp ) throws UsbException
 	{
@@ -185,29 +310,163 @@ public class UsbPipeImp extends Object implements UsbPipe
 
 		setupUsbIrpImp(usbIrpImp);
 
-		submissionCount++;
+		submissionCount.incrementAndGet();
+
+		try {
+			if (usbIrpImp instanceof ScatterGatherUsbIrpImp)
+				getUsbPipeOsImp().syncSubmit( (ScatterGatherUsbIrpImp)usbIrpImp );
+			else
+				getUsbPipeOsImp().syncSubmit( usbIrpImp );
+		} catch ( UsbSubmissionInterruptedException usiE ) {
+			/* Still in progress; it is accounted for, and can be recycled, only once completed. */
+			throw usiE;
+		} catch ( UsbException uE ) {
+			submissionRejected(usbIrpImp);
+			throw uE;
+		} catch ( RuntimeException rE ) {
+			submissionRejected(usbIrpImp);
+			throw rE;
+		} finally {
+			if (usbIrpImp != irp)
+				usbIrpImp.recycle();
+		}
+	}
+
+	/**
+	 * Synchronous submission using a UsbIrp, with a timeout.
+	 * <p>
+	 * If the UsbIrp has not completed when the timeout expires, only that
+	 * submission is {@link #abortSubmission(UsbIrpImp) aborted} and a UsbException thrown;
+	 * other submissions on this pipe are not affected.  The same happens if the waiting Thread is interrupted.
+	 * <p>
+	 * If the UsbPipeOsImp cannot abort a single submission, the UsbIrp is left in progress
+	 * and the UsbException is thrown without waiting further; the UsbIrp completes normally later,
+	 * unless the caller {@link #abortAllSubmissions() aborts all submissions}.  If interrupted, the UsbException is a
+	 * {@link com.ibm.jusb.os.UsbSubmissionInterruptedException UsbSubmissionInterruptedException}.
+	 * @param irp The UsbIrp.
+	 * @param timeout The number of milliseconds to wait, or 0 to wait forever.
+	 * @throws UsbException If the submission failed or timed out.
+	 */
+	public void syncSubmit( UsbIrp irp, long timeout ) throws UsbException
+	{
+		if (0 >= timeout) {
+			syncSubmit(irp);
+			return;
+		}
+
+		checkOpen();
+
+		UsbIrpImp usbIrpImp = usbIrpToUsbIrpImp(irp);
+
+		try {
+			asyncSubmitUsbIrpImp(usbIrpImp);
+
+			usbIrpImp.waitUntilCompleted(timeout);
+
+			if (!usbIrpImp.isCompleted()) {
+				boolean interrupted = Thread.interrupted();
+
+				if (abortSubmission(usbIrpImp))
+					usbIrpImp.waitUntilCompleted();
+
+				if (interrupted)
+					Thread.currentThread().interrupt();
 
-		getUsbPipeOsImp().syncSubmit( usbIrpImp );
+				/* Not aborted; it is still owned by the UsbPipeOsImp, and is not recycled below. */
+				if (!usbIrpImp.isCompleted()) {
+					if (interrupted || Thread.currentThread().isInterrupted())
+						throw new UsbSubmissionInterruptedException();
+					else
+						throw new UsbException("Submission timed out and could not be aborted");
+				}
+
+				if (interrupted)
+					throw new UsbException("Interrupted while waiting for submission to complete");
+
+				/* It may have completed normally just before it was aborted. */
+				if (usbIrpImp.isInUsbException())
+					throw new UsbException("Submission timed out");
+			}
+
+			if (usbIrpImp.isInUsbException())
+				throw usbIrpImp.getUsbException();
+		} finally {
+			if (usbIrpImp != irp)
+				usbIrpImp.recycle();
+		}
 	}
 
 	/**
 	 * Asynchronous submission using a UsbIrp.
+	 * <p>
+	 * A {@link com.ibm.jusb.ScatterGatherUsbIrpImp ScatterGatherUsbIrpImp} is passed to
+	 * the UsbPipeOsImp as a single scatter-gather submission.
 	 */
 	public void asyncSubmit( UsbIrp irp ) throws UsbException
 	{
 		checkOpen();
 
+		asyncSubmitUsbIrpImp(usbIrpToUsbIrpImp(irp));
+	}
+
+	/**
+	 * Asynchronous submission using a UsbIrp, with a completion callback.
+	 * <p>
+	 * The UsbSubmissionListener is called, on the completing Thread, when this
+	 * submission completes; this avoids blocking a Thread to wait for it.  It is in addition to
+	 * the pipe-wide UsbPipeListener data or error event for this submission, which is still
+	 * fired, before the listener is called.  The submission passed to the listener is the
+	 * UsbIrpImp used internally, whose {@link com.ibm.jusb.UsbIrpImp#getUsbIrp() UsbIrp}
+	 * is the specified UsbIrp if that is not a UsbIrpImp.
+	 * @param irp The UsbIrp.
+	 * @param listener The UsbSubmissionListener.
+	 * @throws UsbException If the submission was not accepted.
+	 */
+	public void asyncSubmit( UsbIrp irp, UsbSubmissionListener listener ) throws UsbException
+	{
+		checkOpen();
+
 		UsbIrpImp usbIrpImp = usbIrpToUsbIrpImp(irp);
 
+		usbIrpImp.setUsbSubmissionListener(listener);
+
+		asyncSubmitUsbIrpImp(usbIrpImp);
+	}
+
+	/**
+	 * Asynchronously submit a UsbIrpImp.
+	 * <p>
+	 * The pipe must already have been checked to be open.
+	 * @param usbIrpImp The UsbIrpImp.
+	 * @throws UsbException If the submission was not accepted.
+	 */
+	protected void asyncSubmitUsbIrpImp( UsbIrpImp usbIrpImp ) throws UsbException
+	{
 		setupUsbIrpImp(usbIrpImp);
 
-		submissionCount++;
+		submissionCount.incrementAndGet();
 
-		getUsbPipeOsImp().asyncSubmit( usbIrpImp );
+		try {
+			if (usbIrpImp instanceof ScatterGatherUsbIrpImp)
+				getUsbPipeOsImp().asyncSubmit( (ScatterGatherUsbIrpImp)usbIrpImp );
+			else
+				getUsbPipeOsImp().asyncSubmit( usbIrpImp );
+		} catch ( UsbException uE ) {
+			submissionRejected(usbIrpImp);
+			throw uE;
+		} catch ( RuntimeException rE ) {
+			submissionRejected(usbIrpImp);
+			throw rE;
+		}
 	}
 
 	/**
 	 * Synchronous submission using a List of UsbIrps.
+	 * <p>
+	 * If the waiting Thread is interrupted, a
+	 * {@link com.ibm.jusb.os.UsbSubmissionInterruptedException UsbSubmissionInterruptedException}
+	 * is thrown; UsbIrps already submitted are left in progress and complete normally later,
+	 * and the rest are not submitted, but completed with that UsbException.
 	 */
 	public void syncSubmit( List list ) throws UsbException
 	{
@@ -215,7 +474,7 @@ public class UsbPipeImp extends Object implements UsbPipe
 
 		List newList = preProcessList(list);
 
-		submissionCount += newList.size();
+		submissionCount.addAndGet( newList.size() );
 
 		getUsbPipeOsImp().syncSubmit( newList );
 	}
@@ -229,11 +488,94 @@ public class UsbPipeImp extends Object implements UsbPipe
 
 		List newList = preProcessList(list);
 
-		submissionCount += newList.size();
+		submissionCount.addAndGet( newList.size() );
 
 		getUsbPipeOsImp().asyncSubmit( newList );
 	}
 
+	/**
+	 * Start a continuous streaming read.
+	 * <p>
+	 * This keeps a ring of preallocated UsbIrpImps in flight on this IN pipe, passing each
+	 * completed transfer to the Handler and resubmitting it immediately after the Handler returns.
+	 * Only one stream may be running on a pipe at a time.
+	 * See {@link com.ibm.jusb.UsbPipeStreamReader UsbPipeStreamReader}.
+	 * @param depth The number of UsbIrpImps to keep in flight.
+	 * @param transferSize The size of each transfer.
+	 * @param handler The Handler.
+	 * @return The running UsbPipeStreamReader.
+	 * @throws UsbException If this is not an open IN pipe, or a stream is already running.
+	 */
+	public UsbPipeStreamReader startStreaming( int depth, int transferSize, UsbPipeStreamReader.Handler handler ) throws UsbException
+	{
+		checkOpen();
+
+		if (UsbInfoConst.ENDPOINT_DIRECTION_IN != getUsbEndpointImp().getDirection())
+			throw new UsbException("Cannot stream from an OUT UsbPipe");
+
+		UsbPipeStreamReader reader = null;
+
+		synchronized ( streamLock ) {
+			if (isStreaming())
+				throw new UsbException("UsbPipe already streaming");
+
+			reader = new UsbPipeStreamReader( this, depth, transferSize, handler );
+			usbPipeStreamReader = reader;
+		}
+
+		reader.start();
+
+		return reader;
+	}
+
+	/**
+	 * Stop the current streaming read.
+	 * <p>
+	 * This stops resubmitting and waits for the UsbIrpImps in flight to complete.
+	 * This should not be called from the stream's Handler.
+	 */
+	public void stopStreaming()
+	{
+		UsbPipeStreamReader reader = usbPipeStreamReader;
+
+		if (null != reader) {
+			reader.stop();
+			reader.waitUntilStopped( 0 );
+		}
+	}
+
+	/** @return If a streaming read is running or draining. */
+	public boolean isStreaming()
+	{
+		UsbPipeStreamReader reader = usbPipeStreamReader;
+
+		return null != reader && (reader.isRunning() || 0 < reader.getInFlightCount());
+	}
+
+	/** @return The current or last UsbPipeStreamReader, or null. */
+	public UsbPipeStreamReader getUsbPipeStreamReader() { return usbPipeStreamReader; }
+
+	/**
+	 * Create a buffered streaming writer.
+	 * <p>
+	 * The writer holds the specified number of preallocated buffers, which the caller
+	 * borrows, fills and commits; each commit is an asynchronous submission on this OUT pipe.
+	 * See {@link com.ibm.jusb.UsbPipeStreamWriter UsbPipeStreamWriter}.
+	 * @param count The number of buffers; use 2 or more to overlap filling with transferring.
+	 * @param bufferSize The size of each buffer.
+	 * @return A new UsbPipeStreamWriter.
+	 * @throws UsbException If this is not an open OUT pipe.
+	 */
+	public UsbPipeStreamWriter createWriteStream( int count, int bufferSize ) throws UsbException
+	{
+		checkOpen();
+
+		if (UsbInfoConst.ENDPOINT_DIRECTION_OUT != getUsbEndpointImp().getDirection())
+			throw new UsbException("Cannot stream to an IN UsbPipe");
+
+		return new UsbPipeStreamWriter( this, count, bufferSize );
+	}
+
 	/**
 	 * Stop all submissions in progress.
 	 */
@@ -243,6 +585,24 @@ public class UsbPipeImp extends Object implements UsbPipe
 			getUsbPipeOsImp().abortAllSubmissions();
 	}
 
+	/**
+	 * Stop a single submission in progress.
+	 * <p>
+	 * If the UsbIrpImp is in progress on this pipe, it is aborted and completed with a
+	 * UsbException; other submissions are not affected.  If the UsbPipeOsImp cannot abort
+	 * a single submission, nothing is done and false is returned; the caller may then
+	 * wait for the UsbIrpImp, or {@link #abortAllSubmissions() abort all submissions}.
+	 * @param irp The UsbIrpImp to abort.
+	 * @return false if the UsbIrpImp is in progress and could not be aborted.
+	 */
+	public boolean abortSubmission( UsbIrpImp irp )
+	{
+		if (isOpen() && this == irp.getUsbPipeImp() && irp.isActive())
+			return getUsbPipeOsImp().abortSubmission(irp);
+
+		return true;
+	}
+
 	/**
 	 * Indicate that a specific UsbIrpImp has completed.
 	 * <p>
@@ -252,12 +612,12 @@ public class UsbPipeImp extends Object implements UsbPipe
 	 */
 	public void usbIrpImpCompleted( UsbIrpImp irp )
 	{
-		submissionCount--;
+		submissionCount.decrementAndGet();
 
 		if (irp.isInUsbException())
 			fireErrorEvent(irp.getSequenceNumber(),irp.getUsbException().getErrorCode(),irp.getUsbException());
 		else
-			fireDataEvent(irp.getSequenceNumber(),irp.getData(),irp.getDataLength());
+			fireDataEvent(irp.getSequenceNumber(),irp.getData(),irp.getOffset(),irp.getDataLength());
 	}
 
 	/**
@@ -266,19 +626,130 @@ public class UsbPipeImp extends Object implements UsbPipe
 	 */
 	public void addUsbPipeListener( UsbPipeListener listener ) { usbPipeEventHelper.addEventListener( listener ); }
 
+	/**
+	 * Register's the listener object for UsbPipeEvent, with a filter.
+	 * <p>
+	 * Only events accepted by the filter are fired to the listener; the filter
+	 * is tested before the event is queued.
+	 * @param listener the UsbPipeListener instance
+	 * @param filter the UsbPipeEventFilter
+	 */
+	public void addUsbPipeListener( UsbPipeListener listener, UsbPipeEventFilter filter ) { usbPipeEventHelper.addEventListener( listener, filter ); }
+
 	/**
 	 * Removes the listener object from the listener list
 	 * @param listener the UsbPipeListener instance
 	 */
 	public void removeUsbPipeListener( UsbPipeListener listener ) { usbPipeEventHelper.removeEventListener( listener ); }
 
-	public void setupUsbIrpImp(UsbIrpImp irp)
+	/**
+	 * Register a listener for batches of this pipe's data.
+	 * <p>
+	 * The batch size and coalescing delay are set using the
+	 * {@link #getUsbPipeDataBatchHelper() UsbPipeDataBatchHelper}.
+	 * @param listener The UsbPipeDataBatchListener.
+	 */
+	public void addUsbPipeDataBatchListener( UsbPipeDataBatchListener listener ) { usbPipeDataBatchHelper.addEventListener( listener ); }
+
+	/**
+	 * Remove a listener for batches of this pipe's data.
+	 * @param listener The UsbPipeDataBatchListener.
+	 */
+	public void removeUsbPipeDataBatchListener( UsbPipeDataBatchListener listener ) { usbPipeDataBatchHelper.removeEventListener( listener ); }
+
+	/** @return The UsbPipeDataBatchHelper used to deliver this pipe's data batches. */
+	public UsbPipeDataBatchHelper getUsbPipeDataBatchHelper() { return usbPipeDataBatchHelper; }
+
+	/**
+	 * Get the dispatch metrics of this pipe's listeners.
+	 * <p>
+	 * This includes the UsbPipeListeners and the UsbPipeDataBatchListeners.
+	 * Metrics are only recorded if {@link #setListenerMetricsEnabled(boolean) enabled}.
+	 * @return A List of {@link com.ibm.jusb.util.ListenerMetrics ListenerMetrics}.
+	 */
+	public List getListenerMetrics()
+	{
+		List list = new ArrayList( usbPipeEventHelper.getListenerMetrics() );
+
+		list.addAll( usbPipeDataBatchHelper.getListenerMetrics() );
+
+		return Collections.unmodifiableList( list );
+	}
+
+	/**
+	 * Set if the dispatch metrics of this pipe's listeners are recorded.
+	 * <p>
+	 * This includes the UsbPipeListeners and the UsbPipeDataBatchListeners.
+	 * @param enabled If metrics should be recorded.
+	 */
+	public void setListenerMetricsEnabled( boolean enabled )
 	{
-		irp.setSequenceNumber( sequenceNumber++ );
+		usbPipeEventHelper.setMetricsEnabled( enabled );
+		usbPipeDataBatchHelper.setMetricsEnabled( enabled );
+	}
+
+	/** @return The UsbPipeEventHelper used to fire this pipe's events. */
+	public UsbPipeEventHelper getUsbPipeEventHelper() { return usbPipeEventHelper; }
+
+	/** @return The event dispatch mode. */
+	public int getEventDispatchMode() { return usbPipeEventHelper.getDispatchMode(); }
+
+	/**
+	 * Set the event dispatch mode.
+	 * <p>
+	 * With {@link com.ibm.jusb.util.EventListenerHelper#DISPATCH_QUEUED DISPATCH_QUEUED} (the default),
+	 * UsbPipeListeners are called on a shared event Thread, where they may block, although that
+	 * delays this pipe's later events.  With {@link com.ibm.jusb.util.EventListenerHelper#DISPATCH_INLINE DISPATCH_INLINE},
+	 * UsbPipeListeners are called directly on the Thread that {@link com.ibm.jusb.UsbIrpImp#complete() completes}
+	 * each submission, which is usually the platform's completion Thread; they must not block, and must not
+	 * synchronously submit on this pipe, as no further submissions can complete until they return.
+	 * A RuntimeException they throw is caught and ignored.
+	 * With {@link com.ibm.jusb.util.EventListenerHelper#DISPATCH_PER_LISTENER DISPATCH_PER_LISTENER},
+	 * each UsbPipeListener has its own event queue, so one that blocks delays only its own later events.
+	 * @param mode The event dispatch mode.
+	 * @throws IllegalArgumentException If the mode is not valid.
+	 */
+	public void setEventDispatchMode( int mode ) { usbPipeEventHelper.setDispatchMode( mode ); }
+
+	/** @return The number of slots in the event ring, or 0 if it is not used. */
+	public int getEventRingSize() { return usbPipeEventHelper.getEventRingSize(); }
+
+	/**
+	 * Set the number of slots in the event ring.
+	 * <p>
+	 * With an event ring, events fired in the {@link com.ibm.jusb.util.EventListenerHelper#DISPATCH_QUEUED DISPATCH_QUEUED}
+	 * mode use preallocated, reused events, so no garbage is created for each submission.  The
+	 * UsbPipeDataEvent passed to a UsbPipeListener is only valid until the listener returns; a listener that
+	 * needs it later must copy it.  If the ring is full, the completing Thread waits for a slot, so
+	 * UsbPipeListeners must not wait for later submissions on this pipe to complete.
+	 * @param size The number of slots, which must be a power of two, or 0 to not use an event ring.
+	 * @throws IllegalArgumentException If the size is not 0 or a power of two.
+	 */
+	public void setEventRingSize( int size ) { usbPipeEventHelper.setEventRingSize( this, size ); }
+
+	/**
+	 * Set up a UsbIrpImp for submission.
+	 * <p>
+	 * This assigns the next sequence number.
+	 * @param irp The UsbIrpImp.
+	 */
+	public void setupUsbIrpImp(UsbIrpImp irp) { setupUsbIrpImp(irp, sequenceNumber.getAndIncrement()); }
+
+	/**
+	 * Set up a UsbIrpImp for submission.
+	 * @param irp The UsbIrpImp.
+	 * @param sn The sequence number, which must have been reserved from this pipe.
+	 */
+	protected void setupUsbIrpImp(UsbIrpImp irp, long sn)
+	{
+		irp.setSequenceNumber( sn );
 		irp.setUsbPipeImp( this );
 		irp.setUsbException( null );
 		irp.setActive( true );
 		irp.setCompleted( false );
+
+		if (null != irp.getBuffer() && !getUsbPipeOsImp().isDirectBufferSupported())
+			irp.stageBuffer( UsbInfoConst.ENDPOINT_DIRECTION_IN == getUsbEndpointImp().getDirection() );
 	}
 
 	//**************************************************************************
@@ -286,15 +757,30 @@ public class UsbPipeImp extends Object implements UsbPipe
 
 	/**
 	 * Fire a data event.
+	 * <p>
+	 * The data is null for ByteBuffer submissions passed directly to the UsbPipeOsImp.
 	 * @param sn The serial number.
 	 * @param data The data.
 	 * @param length The length of valid data.
 	 */
-	public void fireDataEvent(long sn, byte[] data, int length)
-	{
-		UsbPipeDataEvent event = new UsbPipeDataEvent(this,sn,data,length);
+	public void fireDataEvent(long sn, byte[] data, int length) { fireDataEvent(sn, data, 0, length); }
 
-		usbPipeEventHelper.dataEventOccurred(event);
+	/**
+	 * Fire a data event.
+	 * <p>
+	 * The event is a {@link com.ibm.jusb.UsbPipeDataEventImp UsbPipeDataEventImp}
+	 * reporting the offset of the valid data.  No event is created if there are no listeners,
+	 * or if the {@link #setEventRingSize(int) event ring} is used.
+	 * The data is also added to the next batch for any UsbPipeDataBatchListeners.
+	 * @param sn The serial number.
+	 * @param data The data.
+	 * @param offset The offset of the valid data.
+	 * @param length The length of valid data.
+	 */
+	public void fireDataEvent(long sn, byte[] data, int offset, int length)
+	{
+		usbPipeEventHelper.dataEventOccurred(this,sn,data,offset,length);
+		usbPipeDataBatchHelper.dataOccurred(sn,data,offset,length);
 	}
 
 	/**
@@ -319,19 +805,23 @@ public class UsbPipeImp extends Object implements UsbPipe
 		try {
 			return (UsbIrpImp)irp;
 		} catch ( ClassCastException ccE ) {
-			return new UsbIrpImp(irp);
+			UsbIrpImp usbIrpImp = usbIrpImpFactory.createUsbIrpImp();
+			usbIrpImp.setUsbIrp(irp);
+			return usbIrpImp;
 		}
 	}
 
 	protected List preProcessList(List list) throws UsbException
 	{
-		List newlist = new ArrayList();
+		List newlist = new ArrayList(list.size());
 
-		for (int i=0; i<list.size(); i++) {
-			UsbIrpImp usbIrpImp = usbIrpToUsbIrpImp((UsbIrp)list.get(i));
-			setupUsbIrpImp(usbIrpImp);
-			newlist.add(usbIrpImp);
-		}
+		for (int i=0; i<list.size(); i++)
+			newlist.add(usbIrpToUsbIrpImp((UsbIrp)list.get(i)));
+
+		long sn = sequenceNumber.getAndAdd( newlist.size() );
+
+		for (int i=0; i<newlist.size(); i++)
+			setupUsbIrpImp((UsbIrpImp)newlist.get(i), sn + i);
 
 		return newlist;
 	}
@@ -358,12 +848,31 @@ public class UsbPipeImp extends Object implements UsbPipe
 			throw new UsbException("UsbPipe not open");
 	}
 
+	/**
+	 * Account for a UsbIrpImp that the UsbPipeOsImp did not accept.
+	 * <p>
+	 * A UsbIrpImp that was completed before the exception was thrown has already
+	 * been accounted for by {@link #usbIrpImpCompleted(UsbIrpImp) usbIrpImpCompleted}.
+	 * @param irp The UsbIrpImp.
+	 */
+	protected void submissionRejected(UsbIrpImp irp)
+	{
+		synchronized ( irp ) {
+			if (!irp.isActive())
+				return;
+
+			irp.setActive( false );
+		}
+
+		submissionCount.decrementAndGet();
+	}
+
 	/** Get a uniquely-numbered UsbIrpImp */
 	protected UsbIrpImp createUsbIrpImp()
 	{
 		UsbIrpImp irp = usbIrpImpFactory.createUsbIrpImp();
 
-		irp.setNumber( ++submitResultCount );
+		irp.setNumber( submitResultCount.incrementAndGet() );
 
 		return irp;
 	}
@@ -372,18 +881,22 @@ public class UsbPipeImp extends Object implements UsbPipe
 	// Instance variables
 
 	private boolean active = false;
-	private boolean open = false;
-	private int errorCode = 0;
+	private volatile boolean open = false;
+	private volatile int errorCode = 0;
 
 	private UsbPipeOsImp usbPipeOsImp = null;
 
 	private UsbPipeEventHelper usbPipeEventHelper = new UsbPipeEventHelper();
+	private UsbPipeDataBatchHelper usbPipeDataBatchHelper = new UsbPipeDataBatchHelper(this);
 
 	private UsbIrpImpFactory usbIrpImpFactory = new UsbIrpImpFactory();
 
-	private long sequenceNumber = 0;
-	private int submissionCount = 0;
-	private int submitResultCount = 0;
+	private UsbPipeStreamReader usbPipeStreamReader = null;
+	private Object streamLock = new Object();
+
+	private AtomicLong sequenceNumber = new AtomicLong( 0 );
+	private AtomicInteger submissionCount = new AtomicInteger( 0 );
+	private AtomicLong submitResultCount = new AtomicLong( 0 );
 
 	private UsbEndpointImp usbEndpointImp = null;
 }
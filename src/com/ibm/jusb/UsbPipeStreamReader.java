@@ -0,0 +1,452 @@
+package com.ibm.jusb;
+
+/**
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.util.concurrent.atomic.*;
+
+import javax.usb.*;
+
+/**
+ * Continuous streaming read from an IN UsbPipeImp.
+ * <p>
+ * This keeps a fixed ring of preallocated UsbIrpImps in flight on the pipe.
+ * As each UsbIrpImp completes, its data is passed to the {@link Handler Handler},
+ * and the UsbIrpImp is resubmitted immediately after the Handler returns.
+ * The Handler is called on the Thread that completed the UsbIrpImp, and the data
+ * byte[] is reused after the Handler returns; the Handler must copy any data it
+ * wants to keep.
+ * <p>
+ * The pipe's UsbPipeListeners and UsbPipeDataBatchListeners are also passed the data byte[],
+ * which is not copied.  UsbPipeDataBatchListeners, and UsbPipeListeners unless the pipe's events are
+ * dispatched {@link com.ibm.jusb.util.EventListenerHelper#DISPATCH_INLINE inline}, may be called after
+ * the byte[] has been resubmitted, so they must not rely on its contents; use the Handler instead.
+ * <p>
+ * If a UsbIrpImp completes with an error, the Handler is notified and the
+ * {@link #setErrorPolicy(int) error policy} decides what happens to that UsbIrpImp.
+ * By default it is resubmitted, unless the {@link #setMaxConsecutiveErrors(int) maximum}
+ * number of consecutive errors has been reached, in which case the stream is stopped.
+ * <p>
+ * Only one Thread at a time resubmits UsbIrpImps; it keeps resubmitting until there are none left to resubmit.
+ * A UsbIrpImp that completes on another Thread, or during a resubmission (as a platform completing
+ * synchronously does), is only left pending for that Thread, so completions never recurse into submissions.
+ * <p>
+ * Whenever a UsbIrpImp completes while no other UsbIrpImp is in flight,
+ * the pipe has no pending transfer and an {@link #getUnderrunCount() underrun} is counted.
+ * A high underrun count indicates the depth is too small or the Handler is too slow.
+ * @author Dan Streetman
+ */
+public class UsbPipeStreamReader
+{
+	/**
+	 * Constructor.
+	 * @param pipe The UsbPipeImp.
+	 * @param depth The number of UsbIrpImps to keep in flight.
+	 * @param transferSize The size of each transfer.
+	 * @param handler The Handler.
+	 * @throws IllegalArgumentException If the depth or transfer size is less than 1.
+	 */
+	public UsbPipeStreamReader( UsbPipeImp pipe, int depth, int transferSize, Handler handler )
+	{
+		if (1 > depth)
+			throw new IllegalArgumentException("Depth cannot be less than 1");
+		if (1 > transferSize)
+			throw new IllegalArgumentException("Transfer size cannot be less than 1");
+
+		usbPipeImp = pipe;
+		streamHandler = handler;
+		size = transferSize;
+
+		irps = new StreamUsbIrpImp[depth];
+		for (int i=0; i<depth; i++) {
+			irps[i] = new StreamUsbIrpImp();
+			irps[i].setData( new byte[transferSize] );
+		}
+	}
+
+	//*************************************************************************
+	// Public methods
+
+	/**
+	 * Start streaming.
+	 * <p>
+	 * This submits all UsbIrpImps.  If any submission fails, the stream is
+	 * {@link #abort() aborted} and the UsbException thrown.
+	 * @throws UsbException If the stream could not be started.
+	 */
+	public void start() throws UsbException
+	{
+		synchronized ( lock ) {
+			if (running || 0 < inFlight)
+				throw new UsbException("Stream already running");
+
+			running = true;
+			consecutiveErrors.set( 0 );
+		}
+
+		for (int i=0; i<irps.length; i++) {
+			synchronized ( lock ) {
+				if (!running)
+					break;
+
+				inFlight++;
+			}
+
+			try {
+				getUsbPipeImp().asyncSubmit( irps[i] );
+			} catch ( UsbException uE ) {
+				submitFailed();
+				abort();
+				throw uE;
+			}
+		}
+	}
+
+	/**
+	 * Stop streaming.
+	 * <p>
+	 * No more UsbIrpImps are submitted; those in flight continue until they complete,
+	 * and their data is passed to the Handler.  This does not block, and may be called
+	 * from the Handler.  Use {@link #waitUntilStopped(long) waitUntilStopped} to wait for the
+	 * in-flight UsbIrpImps to drain.
+	 */
+	public void stop()
+	{
+		synchronized ( lock ) {
+			running = false;
+		}
+	}
+
+	/**
+	 * Abort streaming.
+	 * <p>
+	 * This {@link #stop() stops} streaming and aborts all submissions on the pipe,
+	 * then waits until no UsbIrpImps are in flight.  This should not be called from the Handler.
+	 */
+	public void abort()
+	{
+		stop();
+
+		getUsbPipeImp().abortAllSubmissions();
+
+		waitUntilStopped( 0 );
+	}
+
+	/**
+	 * Wait until the stream has stopped and no UsbIrpImps are in flight.
+	 * <p>
+	 * This should not be called from the Handler.
+	 * @param msecs The maximum number of milliseconds to wait, or 0 to wait forever.
+	 * @return If the stream has stopped.
+	 */
+	public boolean waitUntilStopped( long msecs )
+	{
+		long deadline = System.currentTimeMillis() + msecs;
+
+		synchronized ( lock ) {
+			while (running || 0 < inFlight) {
+				long remaining = deadline - System.currentTimeMillis();
+
+				if (0 != msecs && 0 >= remaining)
+					return false;
+
+				try { lock.wait( 0 == msecs ? 0 : remaining ); }
+				catch ( InterruptedException iE ) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/** @return If this is running. */
+	public boolean isRunning() { return running; }
+
+	/** @return The UsbPipeImp. */
+	public UsbPipeImp getUsbPipeImp() { return usbPipeImp; }
+
+	/** @return The Handler. */
+	public Handler getHandler() { return streamHandler; }
+
+	/** @return The number of UsbIrpImps in the ring. */
+	public int getDepth() { return irps.length; }
+
+	/** @return The size of each transfer. */
+	public int getTransferSize() { return size; }
+
+	/** @return The number of UsbIrpImps currently in flight. */
+	public int getInFlightCount() { return inFlight; }
+
+	/** @return The number of successful transfers. */
+	public long getTransferCount() { return transferCount.get(); }
+
+	/** @return The number of failed transfers. */
+	public long getErrorCount() { return errorCount.get(); }
+
+	/** @return The number of times the ring ran empty while streaming. */
+	public long getUnderrunCount() { return underrunCount.get(); }
+
+	/** @return The error policy. */
+	public int getErrorPolicy() { return errorPolicy; }
+
+	/**
+	 * Set the error policy.
+	 * <p>
+	 * This decides what happens to a UsbIrpImp that completes with an error:
+	 * <ul>
+	 * <li>{@link #ERROR_POLICY_RESUBMIT ERROR_POLICY_RESUBMIT} resubmits it, as for a successful transfer.</li>
+	 * <li>{@link #ERROR_POLICY_REMOVE ERROR_POLICY_REMOVE} removes it from the ring, reducing the depth.</li>
+	 * <li>{@link #ERROR_POLICY_STOP ERROR_POLICY_STOP} {@link #stop() stops} the stream.</li>
+	 * </ul>
+	 * @param policy The error policy.
+	 * @throws IllegalArgumentException If the policy is not valid.
+	 */
+	public void setErrorPolicy( int policy )
+	{
+		switch (policy) {
+		case ERROR_POLICY_RESUBMIT:
+		case ERROR_POLICY_REMOVE:
+		case ERROR_POLICY_STOP:
+			errorPolicy = policy;
+			break;
+		default:
+			throw new IllegalArgumentException("Invalid error policy " + policy);
+		}
+	}
+
+	/** @return The number of consecutive errors after which the stream is stopped, or 0 for no limit. */
+	public int getMaxConsecutiveErrors() { return maxConsecutiveErrors; }
+
+	/**
+	 * Set the number of consecutive errors after which the stream is stopped.
+	 * <p>
+	 * This protects against resubmitting forever to a pipe that always fails,
+	 * for example once the device is disconnected.
+	 * @param max The maximum number of consecutive errors, or 0 for no limit.
+	 * @throws IllegalArgumentException If the max is less than 0.
+	 */
+	public void setMaxConsecutiveErrors( int max )
+	{
+		if (0 > max)
+			throw new IllegalArgumentException("Max consecutive errors cannot be less than 0");
+
+		maxConsecutiveErrors = max;
+	}
+
+	//*************************************************************************
+	// Protected methods
+
+	/**
+	 * Handle a completed UsbIrpImp.
+	 * @param irp The UsbIrpImp.
+	 */
+	protected void usbIrpImpCompleted( UsbIrpImp irp )
+	{
+		boolean resubmit = false;
+
+		boolean error = irp.isInUsbException();
+
+		synchronized ( lock ) {
+			inFlight--;
+
+			if (running && 0 == inFlight)
+				underrunCount.incrementAndGet();
+		}
+
+		try {
+			if (error) {
+				errorCount.incrementAndGet();
+				getHandler().errorOccurred( irp.getUsbException() );
+			} else {
+				transferCount.incrementAndGet();
+				consecutiveErrors.set( 0 );
+				getHandler().dataReceived( irp.getData(), irp.getDataLength() );
+			}
+		} finally {
+			boolean keep = !error || keepAfterError();
+
+			synchronized ( lock ) {
+				resubmit = running && keep;
+
+				if (resubmit)
+					inFlight++;
+				else if (0 == inFlight)
+					running = false;
+
+				lock.notifyAll();
+			}
+		}
+
+		if (resubmit)
+			resubmit( (StreamUsbIrpImp)irp );
+	}
+
+	/**
+	 * Apply the error policy to a UsbIrpImp that completed with an error.
+	 * @return If the UsbIrpImp should be resubmitted.
+	 */
+	protected boolean keepAfterError()
+	{
+		int max = maxConsecutiveErrors;
+
+		if (ERROR_POLICY_STOP == errorPolicy || (0 < max && consecutiveErrors.incrementAndGet() >= max)) {
+			stop();
+			return false;
+		}
+
+		return ERROR_POLICY_RESUBMIT == errorPolicy;
+	}
+
+	/** Account for a UsbIrpImp that could not be submitted. */
+	protected void submitFailed()
+	{
+		synchronized ( lock ) {
+			inFlight--;
+
+			if (0 == inFlight)
+				running = false;
+
+			lock.notifyAll();
+		}
+	}
+
+	//*************************************************************************
+	// Private methods
+
+	/**
+	 * Resubmit a UsbIrpImp, and then any UsbIrpImps left pending, until there are none.
+	 * <p>
+	 * If another Thread is resubmitting, or this is called during a resubmission,
+	 * the UsbIrpImp is left pending for that Thread to resubmit.
+	 * @param irp The UsbIrpImp.
+	 */
+	private void resubmit( StreamUsbIrpImp irp )
+	{
+		synchronized ( lock ) {
+			if (null == pendingTail)
+				pendingHead = irp;
+			else
+				pendingTail.nextPending = irp;
+
+			pendingTail = irp;
+
+			if (resubmitting)
+				return;
+
+			resubmitting = true;
+		}
+
+		while (true) {
+			synchronized ( lock ) {
+				irp = pendingHead;
+
+				if (null == irp) {
+					resubmitting = false;
+					return;
+				}
+
+				pendingHead = irp.nextPending;
+				irp.nextPending = null;
+
+				if (null == pendingHead)
+					pendingTail = null;
+			}
+
+			try {
+				getUsbPipeImp().asyncSubmit( irp );
+			} catch ( UsbException uE ) {
+				errorCount.incrementAndGet();
+				submitFailed();
+
+				/* Other UsbIrpImps may be pending; keep resubmitting them. */
+				try { getHandler().errorOccurred( uE ); }
+				catch ( RuntimeException rE ) { }
+			}
+		}
+	}
+
+	//*************************************************************************
+	// Instance variables
+
+	private UsbPipeImp usbPipeImp = null;
+	private Handler streamHandler = null;
+	private StreamUsbIrpImp[] irps = null;
+	private int size = 0;
+
+	private Object lock = new Object();
+	private boolean running = false;
+	private int inFlight = 0;
+	private StreamUsbIrpImp pendingHead = null;
+	private StreamUsbIrpImp pendingTail = null;
+	private boolean resubmitting = false;
+
+	private AtomicLong transferCount = new AtomicLong( 0 );
+	private AtomicLong errorCount = new AtomicLong( 0 );
+	private AtomicLong underrunCount = new AtomicLong( 0 );
+
+	private volatile int errorPolicy = ERROR_POLICY_RESUBMIT;
+	private volatile int maxConsecutiveErrors = DEFAULT_MAX_CONSECUTIVE_ERRORS;
+	private AtomicInteger consecutiveErrors = new AtomicInteger( 0 );
+
+	//*************************************************************************
+	// Inner classes
+
+	/**
+	 * Handler for streamed data.
+	 */
+	public static interface Handler
+	{
+		/**
+		 * Data was received.
+		 * <p>
+		 * The byte[] is reused after this returns.
+		 * @param data The data.
+		 * @param length The number of valid bytes.
+		 */
+		public void dataReceived( byte[] data, int length );
+
+		/**
+		 * An error occurred.
+		 * @param uE The UsbException.
+		 */
+		public void errorOccurred( UsbException uE );
+	}
+
+	/**
+	 * UsbIrpImp that notifies this when completed.
+	 */
+	private class StreamUsbIrpImp extends UsbIrpImp
+	{
+		public void complete()
+		{
+			super.complete();
+
+			usbIrpImpCompleted( this );
+		}
+
+		/* The next UsbIrpImp pending resubmission; guarded by the lock. */
+		private StreamUsbIrpImp nextPending = null;
+	}
+
+	//*************************************************************************
+	// Class constants
+
+	/** Resubmit a UsbIrpImp that completed with an error. */
+	public static final int ERROR_POLICY_RESUBMIT = 0;
+	/** Remove a UsbIrpImp that completed with an error from the ring. */
+	public static final int ERROR_POLICY_REMOVE = 1;
+	/** Stop the stream when a UsbIrpImp completes with an error. */
+	public static final int ERROR_POLICY_STOP = 2;
+
+	/** The default maximum number of consecutive errors. */
+	public static final int DEFAULT_MAX_CONSECUTIVE_ERRORS = 16;
+
+}
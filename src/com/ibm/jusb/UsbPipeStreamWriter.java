@@ -0,0 +1,366 @@
+package com.ibm.jusb;
+
+/**
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import javax.usb.*;
+
+/**
+ * Buffered streaming write to an OUT UsbPipeImp.
+ * <p>
+ * This holds a fixed set of preallocated UsbIrpImps.  The caller {@link #borrow() borrows}
+ * a UsbIrpImp, fills its {@link com.ibm.jusb.UsbIrpImp#getData() data}, and
+ * {@link #commit(UsbIrpImp,int) commits} it, which asynchronously submits it.  The UsbIrpImp
+ * is returned to the free set only after it completes, so with two or more buffers the
+ * caller can fill the next buffer while the previous one is being transferred.
+ * <p>
+ * Each UsbIrpImp may be committed or released only once per borrow; committing or releasing
+ * a UsbIrpImp that is not currently borrowed throws an IllegalStateException.
+ * <p>
+ * If a submission fails, the UsbException is thrown from the next call to
+ * {@link #borrow() borrow}, {@link #commit(UsbIrpImp,int) commit} or {@link #flush() flush}.
+ * @author Dan Streetman
+ */
+public class UsbPipeStreamWriter
+{
+	/**
+	 * Constructor.
+	 * @param pipe The UsbPipeImp.
+	 * @param count The number of buffers.
+	 * @param bufferSize The size of each buffer.
+	 * @throws IllegalArgumentException If the count or buffer size is less than 1.
+	 */
+	public UsbPipeStreamWriter( UsbPipeImp pipe, int count, int bufferSize )
+	{
+		if (1 > count)
+			throw new IllegalArgumentException("Buffer count cannot be less than 1");
+		if (1 > bufferSize)
+			throw new IllegalArgumentException("Buffer size cannot be less than 1");
+
+		usbPipeImp = pipe;
+		size = bufferSize;
+
+		irps = new WriteUsbIrpImp[count];
+		freeIrps = new WriteUsbIrpImp[count];
+		for (int i=0; i<count; i++) {
+			irps[i] = new WriteUsbIrpImp( new byte[bufferSize] );
+			freeIrps[freeCount++] = irps[i];
+		}
+	}
+
+	//*************************************************************************
+	// Public methods
+
+	/**
+	 * Borrow a free buffer.
+	 * <p>
+	 * This blocks until a buffer is free.  The buffer is the UsbIrpImp's
+	 * {@link com.ibm.jusb.UsbIrpImp#getData() data}, which is
+	 * {@link #getBufferSize() getBufferSize()} bytes long.  The UsbIrpImp must be either
+	 * {@link #commit(UsbIrpImp,int) committed} or {@link #release(UsbIrpImp) released}.
+	 * @return A free UsbIrpImp.
+	 * @throws UsbException If a previous submission failed, this is closed, or the wait was interrupted.
+	 */
+	public UsbIrpImp borrow() throws UsbException
+	{
+		synchronized ( lock ) {
+			while (true) {
+				checkState();
+
+				if (0 < freeCount) {
+					WriteUsbIrpImp irp = freeIrps[--freeCount];
+					freeIrps[freeCount] = null;
+					irp.state = STATE_BORROWED;
+					return irp;
+				}
+
+				try { lock.wait(); }
+				catch ( InterruptedException iE ) {
+					Thread.currentThread().interrupt();
+					throw new UsbException("Interrupted while waiting for a free buffer");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Commit a borrowed buffer.
+	 * <p>
+	 * The first length bytes of the buffer are asynchronously submitted.
+	 * The UsbIrpImp must not be used again until it is borrowed again.
+	 * @param irp The borrowed UsbIrpImp.
+	 * @param length The number of bytes to write.
+	 * @throws UsbException If a previous submission failed, or the submission fails.
+	 * @throws IllegalArgumentException If the UsbIrpImp does not belong to this, or the length is invalid.
+	 * @throws IllegalStateException If the UsbIrpImp is not borrowed.
+	 */
+	public void commit( UsbIrpImp irp, int length ) throws UsbException
+	{
+		WriteUsbIrpImp writeIrp = checkUsbIrpImp( irp );
+
+		synchronized ( lock ) {
+			checkBorrowed( writeIrp );
+		}
+
+		try {
+			checkState();
+
+			writeIrp.setData( writeIrp.getWriteBuffer(), 0, length );
+		} catch ( UsbException uE ) {
+			release( writeIrp );
+			throw uE;
+		} catch ( IllegalArgumentException iaE ) {
+			release( writeIrp );
+			throw iaE;
+		}
+
+		synchronized ( lock ) {
+			checkBorrowed( writeIrp );
+
+			writeIrp.state = STATE_SUBMITTED;
+		}
+
+		try {
+			getUsbPipeImp().asyncSubmit( writeIrp );
+		} catch ( UsbException uE ) {
+			setFree( writeIrp, STATE_SUBMITTED );
+			throw uE;
+		} catch ( RuntimeException rE ) {
+			setFree( writeIrp, STATE_SUBMITTED );
+			throw rE;
+		}
+	}
+
+	/**
+	 * Release a borrowed buffer without submitting it.
+	 * @param irp The borrowed UsbIrpImp.
+	 * @throws IllegalArgumentException If the UsbIrpImp does not belong to this.
+	 * @throws IllegalStateException If the UsbIrpImp is not borrowed.
+	 */
+	public void release( UsbIrpImp irp )
+	{
+		WriteUsbIrpImp writeIrp = checkUsbIrpImp( irp );
+
+		synchronized ( lock ) {
+			checkBorrowed( writeIrp );
+
+			setFree( writeIrp, STATE_BORROWED );
+		}
+	}
+
+	/**
+	 * Wait until all committed buffers have completed.
+	 * <p>
+	 * This should not be called while holding borrowed buffers.
+	 * @throws UsbException If a submission failed, or the wait was interrupted.
+	 */
+	public void flush() throws UsbException
+	{
+		synchronized ( lock ) {
+			while (freeCount < irps.length) {
+				if (null != usbException)
+					break;
+
+				try { lock.wait(); }
+				catch ( InterruptedException iE ) {
+					Thread.currentThread().interrupt();
+					throw new UsbException("Interrupted while flushing");
+				}
+			}
+
+			throwUsbException();
+		}
+	}
+
+	/**
+	 * Flush and close this.
+	 * <p>
+	 * After closing, no buffers can be borrowed or committed.
+	 * @throws UsbException If a submission failed, or the wait was interrupted.
+	 */
+	public void close() throws UsbException
+	{
+		try {
+			flush();
+		} finally {
+			synchronized ( lock ) {
+				closed = true;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/** @return If this is closed. */
+	public boolean isClosed() { return closed; }
+
+	/** @return The UsbPipeImp. */
+	public UsbPipeImp getUsbPipeImp() { return usbPipeImp; }
+
+	/** @return The number of buffers. */
+	public int getBufferCount() { return irps.length; }
+
+	/** @return The size of each buffer. */
+	public int getBufferSize() { return size; }
+
+	/** @return The number of buffers currently free. */
+	public int getFreeCount() { return freeCount; }
+
+	//*************************************************************************
+	// Protected methods
+
+	/**
+	 * Handle a completed UsbIrpImp.
+	 * @param irp The UsbIrpImp.
+	 */
+	protected void usbIrpImpCompleted( UsbIrpImp irp )
+	{
+		synchronized ( lock ) {
+			if (irp.isInUsbException() && null == usbException)
+				usbException = irp.getUsbException();
+
+			setFree( (WriteUsbIrpImp)irp, STATE_SUBMITTED );
+		}
+	}
+
+	/**
+	 * Check if this can be used.
+	 * @throws UsbException If a submission failed or this is closed.
+	 */
+	protected void checkState() throws UsbException
+	{
+		synchronized ( lock ) {
+			throwUsbException();
+
+			if (closed)
+				throw new UsbException("UsbPipeStreamWriter is closed");
+		}
+	}
+
+	/**
+	 * Throw, and clear, any pending UsbException.
+	 * @throws UsbException If a submission failed.
+	 */
+	protected void throwUsbException() throws UsbException
+	{
+		synchronized ( lock ) {
+			UsbException uE = usbException;
+
+			usbException = null;
+
+			if (null != uE)
+				throw uE;
+		}
+	}
+
+	//*************************************************************************
+	// Private methods
+
+	/**
+	 * Check that the UsbIrpImp is borrowed.
+	 * <p>
+	 * The caller must hold the lock.
+	 * @param irp The WriteUsbIrpImp.
+	 * @throws IllegalStateException If the UsbIrpImp is not borrowed.
+	 */
+	private void checkBorrowed( WriteUsbIrpImp irp )
+	{
+		if (STATE_BORROWED != irp.state)
+			throw new IllegalStateException("UsbIrpImp is not borrowed from this UsbPipeStreamWriter");
+	}
+
+	/**
+	 * Return a UsbIrpImp to the free set, if it is in the expected state.
+	 * <p>
+	 * A submitted UsbIrpImp may be returned both by its completion and by a failed
+	 * submission; only the first returns it.
+	 * @param irp The WriteUsbIrpImp.
+	 * @param expected The state the UsbIrpImp must be in.
+	 */
+	private void setFree( WriteUsbIrpImp irp, int expected )
+	{
+		synchronized ( lock ) {
+			if (expected != irp.state)
+				return;
+
+			irp.state = STATE_FREE;
+			freeIrps[freeCount++] = irp;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Check that the UsbIrpImp belongs to this.
+	 * @param irp The UsbIrpImp.
+	 * @return The WriteUsbIrpImp.
+	 * @throws IllegalArgumentException If the UsbIrpImp does not belong to this.
+	 */
+	private WriteUsbIrpImp checkUsbIrpImp( UsbIrpImp irp )
+	{
+		for (int i=0; i<irps.length; i++)
+			if (irps[i] == irp)
+				return irps[i];
+
+		throw new IllegalArgumentException("UsbIrpImp does not belong to this UsbPipeStreamWriter");
+	}
+
+	//*************************************************************************
+	// Instance variables
+
+	private UsbPipeImp usbPipeImp = null;
+	private WriteUsbIrpImp[] irps = null;
+	private int size = 0;
+
+	private Object lock = new Object();
+	private WriteUsbIrpImp[] freeIrps = null;
+	private int freeCount = 0;
+	private boolean closed = false;
+	private UsbException usbException = null;
+
+	//*************************************************************************
+	// Inner classes
+
+	/**
+	 * UsbIrpImp that returns itself to the free set when completed.
+	 */
+	private class WriteUsbIrpImp extends UsbIrpImp
+	{
+		/**
+		 * Constructor.
+		 * @param data The buffer.
+		 */
+		public WriteUsbIrpImp( byte[] data )
+		{
+			writeBuffer = data;
+			setData( data );
+		}
+
+		/** @return The buffer. */
+		public byte[] getWriteBuffer() { return writeBuffer; }
+
+		public void complete()
+		{
+			super.complete();
+
+			usbIrpImpCompleted( this );
+		}
+
+		private byte[] writeBuffer = null;
+
+		/* Guarded by the UsbPipeStreamWriter's lock. */
+		private int state = STATE_FREE;
+	}
+
+	//*************************************************************************
+	// Class constants
+
+	private static final int STATE_FREE = 0;
+	private static final int STATE_BORROWED = 1;
+	private static final int STATE_SUBMITTED = 2;
+
+}
@@ -27,7 +27,7 @@ public class UsbServicesEventHelper extends EventListenerHelper implements UsbSe
 		if (!hasListeners())
 			return;
 
-		addRunnable( new AttachEvent(event) );
+		fireEvent( new AttachEvent(event) );
 	}
 
 	/** UsbDevices detached */
@@ -36,21 +36,17 @@ public class UsbServicesEventHelper extends EventListenerHelper implements UsbSe
 		if (!hasListeners())
 			return;
 
-		addRunnable( new DetachEvent(event) );
+		fireEvent( new DetachEvent(event) );
 	}
 
-//FIXME - event firing should use a list copy or be sync'd with add/remove of listeners
-
 	private class AttachEvent extends EventRunnable
 	{
 		public AttachEvent() { super(); }
 		public AttachEvent(EventObject e) { super(e); }
 
-		public void run()
+		public void fire(EventListener listener)
 		{
-			List list = getEventListeners();
-			for (int i=0; i<list.size(); i++)
-				((UsbServicesListener)list.get(i)).usbDeviceAttached((UsbServicesEvent)event);
+			((UsbServicesListener)listener).usbDeviceAttached((UsbServicesEvent)event);
 		}
 	}
 
@@ -59,11 +55,9 @@ public class UsbServicesEventHelper extends EventListenerHelper implements UsbSe
 		public DetachEvent() { super(); }
 		public DetachEvent(EventObject e) { super(e); }
 
-		public void run()
+		public void fire(EventListener listener)
 		{
-			List list = getEventListeners();
-			for (int i=0; i<list.size(); i++)
-				((UsbServicesListener)list.get(i)).usbDeviceDetached((UsbServicesEvent)event);
+			((UsbServicesListener)listener).usbDeviceDetached((UsbServicesEvent)event);
 		}
 	}
 }                                                                             
@@ -29,6 +29,9 @@ public abstract class AbstractUsbDeviceOsImp implements UsbDeviceOsImp
 	 * Synchronously submit a RequestImp.
 	 * <p>
 	 * This method is implemented using {@link #asyncSubmit(RequestImp) asyncSubmit(RequestImp)}.
+	 * If the waiting Thread is interrupted, a
+	 * {@link com.ibm.jusb.os.UsbSubmissionInterruptedException UsbSubmissionInterruptedException}
+	 * is thrown and the RequestImp is left in progress.
 	 * @param requestImp The RequestImp.
 	 * @throws UsbException If the submission is unsuccessful.
 	 */
@@ -38,6 +41,9 @@ public abstract class AbstractUsbDeviceOsImp implements UsbDeviceOsImp
 
 		requestImp.waitUntilCompleted();
 
+		if (!requestImp.isCompleted())
+			throw new UsbSubmissionInterruptedException();
+
 		if (requestImp.isUsbException())
 			throw requestImp.getUsbException();
 	}
@@ -49,13 +55,66 @@ public abstract class AbstractUsbDeviceOsImp implements UsbDeviceOsImp
 	 * This implementation does not throw UsbException; errors are set on a per-RequestImp basis
 	 * but overall execution continues.  Persistent errors will cause all remaining RequestImps to
 	 * fail and have their UsbException set, but no UsbException will be thrown.
+	 * <p>
+	 * If the waiting Thread is interrupted, the RequestImp being waited for is left in progress,
+	 * the remaining RequestImps are not submitted, and are completed with the
+	 * {@link com.ibm.jusb.os.UsbSubmissionInterruptedException UsbSubmissionInterruptedException},
+	 * which is then thrown.
 	 * @param list The List.
+	 * @throws com.ibm.jusb.os.UsbSubmissionInterruptedException If the waiting Thread was interrupted.
 	 */
 	public void syncSubmit(List list) throws UsbException
 	{
 		for (int i=0; i<list.size(); i++) {
-			try { syncSubmit((RequestImp)list.get(i)); }
-			catch ( UsbException uE ) { /* continue processing list */ }
+			try {
+				syncSubmit((RequestImp)list.get(i));
+			} catch ( UsbSubmissionInterruptedException usiE ) {
+				for (int j=i+1; j<list.size(); j++) {
+					((RequestImp)list.get(j)).setUsbException(usiE);
+					((RequestImp)list.get(j)).complete();
+				}
+				throw usiE;
+			} catch ( UsbException uE ) { /* continue processing list */ }
+		}
+	}
+
+	/**
+	 * If this can have several RequestImps of a List in progress at once.
+	 * <p>
+	 * This is implemented to return false, so RequestBundles are submitted one
+	 * RequestImp at a time.  An implementation that can pipeline RequestImps should
+	 * override this to return true, and override {@link #asyncSubmit(List) asyncSubmit(List)} if needed.
+	 * @return false.
+	 */
+	public boolean isRequestPipeliningSupported() { return false; }
+
+	/**
+	 * Asynchronously submit a List of RequestImps.
+	 * <p>
+	 * This is implemented using {@link #asyncSubmit(RequestImp) asyncSubmit(RequestImp)},
+	 * submitting each RequestImp without waiting for the previous one to complete;
+	 * the platform-independent implementation only uses it for RequestBundles if
+	 * {@link #isRequestPipeliningSupported() isRequestPipeliningSupported} is overridden to return true.
+	 * If a UsbException is thrown while submitting a RequestImp, the failed RequestImp and
+	 * all further RequestImps in the list are set to that UsbException and not submitted.
+	 * Already submitted RequestImps will continue to their normal completion.
+	 * The UsbException is then thrown.
+	 * @param list The List.
+	 * @throws UsbException If one of the RequestImps was not accepted by the implementation.
+	 */
+	public void asyncSubmit(List list) throws UsbException
+	{
+		int i = 0;
+
+		try {
+			for (i=0; i<list.size(); i++)
+				asyncSubmit((RequestImp)list.get(i));
+		} catch ( UsbException uE ) {
+			for (int j=i; j<list.size(); j++) {
+				((RequestImp)list.get(j)).setUsbException(uE);
+				((RequestImp)list.get(j)).complete();
+			}
+			throw uE;
 		}
 	}
 
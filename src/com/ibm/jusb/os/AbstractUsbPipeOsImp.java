@@ -39,10 +39,21 @@ public abstract class AbstractUsbPipeOsImp implements UsbPipeOsImp
 	 */
 	public void close() { }
 
+	/**
+	 * If this accepts UsbIrpImps carrying a ByteBuffer.
+	 * <p>
+	 * This is implemented to return false.
+	 * @return false.
+	 */
+	public boolean isDirectBufferSupported() { return false; }
+
 	/**
 	 * Synchronously submits this UsbIrpImp to the platform implementation.
 	 * <p>
 	 * This is implemented using {@link #asyncSubmit(UsbIrpImp) asyncSubmit(UsbIrpImp)}.
+	 * If the waiting Thread is interrupted, a
+	 * {@link com.ibm.jusb.os.UsbSubmissionInterruptedException UsbSubmissionInterruptedException}
+	 * is thrown and the UsbIrpImp is left in progress.
 	 * @param irp the UsbIrpImp to use for this submission.
 	 * @exception javax.usb.UsbException If the data transfer was unsuccessful.
 	 */
@@ -52,6 +63,9 @@ public abstract class AbstractUsbPipeOsImp implements UsbPipeOsImp
 
 		irp.waitUntilCompleted();
 
+		if (!irp.isCompleted())
+			throw new UsbSubmissionInterruptedException();
+
 		if (irp.isInUsbException())
 			throw irp.getUsbException();
 	}
@@ -63,13 +77,29 @@ public abstract class AbstractUsbPipeOsImp implements UsbPipeOsImp
 	 * This implementation does not throw UsbException; errors are set on a per-UsbIrpImp basis
 	 * but overall execution continues.	 Persistent errors will cause all remaining UsbIrpImps to
 	 * fail and have their UsbException set, but no UsbException will be thrown.
+	 * <p>
+	 * If the waiting Thread is interrupted, the UsbIrpImp being waited for is left in progress,
+	 * the remaining UsbIrpImps are not submitted, and are completed with the
+	 * {@link com.ibm.jusb.os.UsbSubmissionInterruptedException UsbSubmissionInterruptedException},
+	 * which is then thrown.
 	 * @param list the UsbIrpImps to use for this submission.
+	 * @exception com.ibm.jusb.os.UsbSubmissionInterruptedException If the waiting Thread was interrupted.
 	 */
 	public void syncSubmit( List list ) throws UsbException
 	{
 		for (int i=0; i<list.size(); i++) {
-			try { syncSubmit((UsbIrpImp)list.get(i)); }
-			catch ( UsbException uE ) { /* continue processing list */ }
+			try {
+				if (list.get(i) instanceof ScatterGatherUsbIrpImp)
+					syncSubmit((ScatterGatherUsbIrpImp)list.get(i));
+				else
+					syncSubmit((UsbIrpImp)list.get(i));
+			} catch ( UsbSubmissionInterruptedException usiE ) {
+				for (int j=i+1; j<list.size(); j++) {
+					((UsbSubmission)list.get(j)).setUsbException(usiE);
+					((UsbSubmission)list.get(j)).complete();
+				}
+				throw usiE;
+			} catch ( UsbException uE ) { /* continue processing list */ }
 		}
 	}
 
@@ -89,8 +119,12 @@ public abstract class AbstractUsbPipeOsImp implements UsbPipeOsImp
 		int i = 0;
 
 		try {
-			for (i=0; i<list.size(); i++)
-				asyncSubmit((UsbIrpImp)list.get(i));
+			for (i=0; i<list.size(); i++) {
+				if (list.get(i) instanceof ScatterGatherUsbIrpImp)
+					asyncSubmit((ScatterGatherUsbIrpImp)list.get(i));
+				else
+					asyncSubmit((UsbIrpImp)list.get(i));
+			}
 		} catch ( UsbException uE ) {
 			for (int j=i; j<list.size(); j++) {
 				((UsbSubmission)list.get(j)).setUsbException(uE);
@@ -100,6 +134,36 @@ public abstract class AbstractUsbPipeOsImp implements UsbPipeOsImp
 		}
 	}
 
+	/**
+	 * Synchronously submits this ScatterGatherUsbIrpImp to the platform implementation.
+	 * <p>
+	 * This is implemented by {@link com.ibm.jusb.ScatterGatherUsbIrpImp#linearise() linearising}
+	 * the segments and using {@link #syncSubmit(UsbIrpImp) syncSubmit(UsbIrpImp)}.
+	 * @param irp the ScatterGatherUsbIrpImp to use for this submission.
+	 * @exception javax.usb.UsbException If the data transfer was unsuccessful.
+	 */
+	public void syncSubmit( ScatterGatherUsbIrpImp irp ) throws UsbException
+	{
+		irp.linearise();
+
+		syncSubmit((UsbIrpImp)irp);
+	}
+
+	/**
+	 * Asynchronously submits this ScatterGatherUsbIrpImp to the platform implementation.
+	 * <p>
+	 * This is implemented by {@link com.ibm.jusb.ScatterGatherUsbIrpImp#linearise() linearising}
+	 * the segments and using {@link #asyncSubmit(UsbIrpImp) asyncSubmit(UsbIrpImp)}.
+	 * @param irp the ScatterGatherUsbIrpImp to use for this submission.
+	 * @exception javax.usb.UsbException If the ScatterGatherUsbIrpImp was not accepted by the implementation.
+	 */
+	public void asyncSubmit( ScatterGatherUsbIrpImp irp ) throws UsbException
+	{
+		irp.linearise();
+
+		asyncSubmit((UsbIrpImp)irp);
+	}
+
 	/**
 	 * Asynchronously submits this UsbIrpImp to the platform implementation.
 	 * <p>
@@ -116,5 +180,15 @@ public abstract class AbstractUsbPipeOsImp implements UsbPipeOsImp
 	 */
 	public abstract void abortAllSubmissions();
 
+	/**
+	 * Stop a single submission in progress.
+	 * <p>
+	 * This is implemented to do nothing and return false, as aborting a single submission
+	 * is not supported.  Implementations that can abort a single submission should override this.
+	 * @param irp The UsbIrpImp to abort.
+	 * @return false.
+	 */
+	public boolean abortSubmission( UsbIrpImp irp ) { return false; }
+
 	private UsbIrpImpFactory usbIrpImpFactory = new UsbIrpImpFactory();
 }
@@ -68,4 +68,31 @@ public interface UsbDeviceOsImp
 	 * @throws UsbException If the submission was not accepted by the implementation.
 	 */
 	public void asyncSubmit(RequestImp requestImp) throws UsbException;
+
+	/**
+	 * If this can have several RequestImps of a List in progress at once.
+	 * <p>
+	 * If this returns true, a RequestBundle is passed to
+	 * {@link #asyncSubmit(List) asyncSubmit(List)} at once, so the implementation may pipeline it.
+	 * If this returns false, the platform-independent implementation submits the RequestImps of
+	 * a RequestBundle one at a time using {@link #asyncSubmit(RequestImp) asyncSubmit(RequestImp)},
+	 * each after the previous one has completed.
+	 * @return If the RequestImps of a List may be pipelined.
+	 */
+	public boolean isRequestPipeliningSupported();
+
+	/**
+	 * Asynchronously submit a List of RequestImps.
+	 * <p>
+	 * This should return as soon as possible.  All items in the List will be RequestImps,
+	 * which must be sent in order; the implementation may have all of them in progress at once.
+	 * If any of the RequestImps were not accepted by the implementation, no further RequestImps
+	 * should be attempted, and the UsbException should be thrown.  RequestImps already accepted
+	 * should continue their normal execution.  The implementation must perform all actions specified
+	 * in the {@link com.ibm.jusb.RequestImp RequestImp documentation} for all RequestImps in the List,
+	 * including those not accepted.
+	 * @param list The List.
+	 * @throws UsbException If one of the RequestImps was not accepted by the implementation.
+	 */
+	public void asyncSubmit(List list) throws UsbException;
 }
@@ -34,6 +34,18 @@ public interface UsbPipeOsImp
 	 */
 	public void open() throws UsbException;
 
+	/**
+	 * If this accepts UsbIrpImps carrying a ByteBuffer.
+	 * <p>
+	 * If this returns true, UsbIrpImps with a {@link com.ibm.jusb.UsbIrpImp#getBuffer() ByteBuffer}
+	 * (including direct ByteBuffers) are passed unchanged, and the implementation must transfer
+	 * the data between the buffer's position and limit.  Their {@link com.ibm.jusb.UsbIrpImp#getData() data}
+	 * will be null.  If this returns false, the platform-independent implementation
+	 * will always provide a byte[], copying to and from the buffer as needed.
+	 * @return If ByteBuffers are supported without copying.
+	 */
+	public boolean isDirectBufferSupported();
+
 	/**
 	 * Synchronously submits this UsbIrpImp to the platform implementation.
 	 * <p>
@@ -96,6 +108,29 @@ public interface UsbPipeOsImp
 	 */
 	public void asyncSubmit( List list ) throws UsbException;
 
+	/**
+	 * Synchronously submits this ScatterGatherUsbIrpImp to the platform implementation.
+	 * <p>
+	 * This should be handled in the same manner as {@link #syncSubmit(UsbIrpImp) syncSubmit},
+	 * except the data is in the {@link com.ibm.jusb.ScatterGatherUsbIrpImp#getSegmentData(int) segments},
+	 * which must be transferred in order as a single submission.  The data length must be set to the
+	 * combined number of bytes transferred.  An implementation that cannot natively transfer segments may
+	 * {@link com.ibm.jusb.ScatterGatherUsbIrpImp#linearise() linearise} it and handle it as a normal UsbIrpImp.
+	 * @param irp the ScatterGatherUsbIrpImp to use for this submission.
+	 * @exception javax.usb.UsbException If the data transfer was unsuccessful.
+	 */
+	public void syncSubmit( ScatterGatherUsbIrpImp irp ) throws UsbException;
+
+	/**
+	 * Asynchronously submits this ScatterGatherUsbIrpImp to the platform implementation.
+	 * <p>
+	 * This should be handled in the same manner as {@link #asyncSubmit(UsbIrpImp) asyncSubmit},
+	 * with the segments handled as described in {@link #syncSubmit(ScatterGatherUsbIrpImp) syncSubmit}.
+	 * @param irp the ScatterGatherUsbIrpImp to use for this submission.
+	 * @exception javax.usb.UsbException If the ScatterGatherUsbIrpImp was not accepted by the implementation.
+	 */
+	public void asyncSubmit( ScatterGatherUsbIrpImp irp ) throws UsbException;
+
 	/**
 	 * Stop all submissions in progress.
 	 * <p>
@@ -106,6 +141,22 @@ public interface UsbPipeOsImp
 	 */
 	public void abortAllSubmissions();
 
+	/**
+	 * Stop a single submission in progress.
+	 * <p>
+	 * If the UsbIrpImp is still in progress, it should be aborted and completed
+	 * with a UsbException; other submissions should not be affected.  If the UsbIrpImp
+	 * is not in progress, this should do nothing.  This should not return until the
+	 * UsbIrpImp is no longer in progress.
+	 * <p>
+	 * An implementation that cannot abort a single submission should do nothing and
+	 * return false, as {@link com.ibm.jusb.os.AbstractUsbPipeOsImp AbstractUsbPipeOsImp} does;
+	 * it must not abort other submissions instead.
+	 * @param irp The UsbIrpImp to abort.
+	 * @return false if aborting a single submission is not supported.
+	 */
+	public boolean abortSubmission( UsbIrpImp irp );
+
 	/**
 	 * Close the pipe.
 	 */
@@ -0,0 +1,34 @@
+package com.ibm.jusb.os;
+
+/**
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import javax.usb.*;
+
+/**
+ * Exception indicating a synchronous submission's wait was interrupted.
+ * <p>
+ * Unlike other UsbExceptions thrown from a submission, this does not mean the
+ * submission was rejected; it was accepted and is still in progress, and remains owned by
+ * the platform implementation until it {@link com.ibm.jusb.os.UsbSubmission#complete() completes}.
+ * It must not be accounted as rejected, or recycled, until then.
+ * The interrupted status of the waiting Thread is left set.
+ * @author Dan Streetman
+ */
+public class UsbSubmissionInterruptedException extends UsbException
+{
+	/** Constructor. */
+	public UsbSubmissionInterruptedException() { super("Interrupted while waiting for submission to complete"); }
+
+	/**
+	 * Constructor.
+	 * @param s The detail message.
+	 */
+	public UsbSubmissionInterruptedException( String s ) { super(s); }
+}
@@ -0,0 +1,32 @@
+package com.ibm.jusb.os;
+
+/**
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+/**
+ * Interface for notification of a single submission's completion.
+ * <p>
+ * A listener is attached to one submission, unlike pipe or device listeners
+ * which are notified of every submission.  It is called directly on the Thread
+ * that {@link com.ibm.jusb.os.UsbSubmission#complete() completes} the submission,
+ * so it should not block.
+ * @author Dan Streetman
+ */
+public interface UsbSubmissionListener
+{
+	/**
+	 * The submission has completed.
+	 * <p>
+	 * The submission is a {@link com.ibm.jusb.UsbIrpImp UsbIrpImp} for pipe
+	 * submissions, or a {@link com.ibm.jusb.RequestImp RequestImp} for Request submissions.
+	 * @param submission The completed submission.
+	 */
+	public void submissionCompleted(UsbSubmission submission);
+
+}
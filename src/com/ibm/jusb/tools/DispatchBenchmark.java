@@ -0,0 +1,257 @@
+package com.ibm.jusb.tools;
+
+/*
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import javax.usb.event.*;
+
+import com.ibm.jusb.*;
+import com.ibm.jusb.util.*;
+
+/**
+ * Benchmark of the event dispatch backends.
+ * <p>
+ * This fires UsbPipeDataEvents at a fixed rate, round-robin across a number of UsbPipeImps
+ * that each have a number of listeners, and reports for each backend the number of events delivered,
+ * the latency from firing an event until a listener is called, and the number of events a listener
+ * received out of order (which should always be 0).  The backends are:
+ * <ul>
+ * <li><code>queued</code> : the {@link com.ibm.jusb.util.EventListenerHelper#DISPATCH_QUEUED queued}
+ * dispatch mode, each pipe's RunnableManager running on the shared RunnableDispatcher.</li>
+ * <li><code>shared</code> : the {@link com.ibm.jusb.util.EventListenerHelper#DISPATCH_PER_LISTENER per-listener}
+ * dispatch mode, on the shared RunnableDispatcher.</li>
+ * <li><code>virtual</code> : the per-listener dispatch mode, on virtual Threads; skipped if they are not available.</li>
+ * </ul>
+ * If a slow time is given, the first listener of every pipe busy-waits that long for each event,
+ * and the latency of the other listeners is also reported separately.
+ * <p>
+ * The defaults are 10000 events per second across 500 pipes with 2 listeners each, for 10 seconds.
+ * <pre>
+ * DispatchBenchmark [-rate events/sec] [-pipes n] [-listeners n] [-seconds n] [-slow usecs] [queued|shared|virtual ...]
+ * </pre>
+ * @author Dan Streetman
+ */
+public class DispatchBenchmark
+{
+	/** Main */
+	public static void main( String[] argv ) throws Exception
+	{
+		DispatchBenchmark benchmark = new DispatchBenchmark();
+		List backends = new ArrayList();
+
+		for (int i=0; i<argv.length; i++) {
+			if ("-rate".equals(argv[i]))
+				benchmark.rate = Integer.parseInt(argv[++i]);
+			else if ("-pipes".equals(argv[i]))
+				benchmark.pipeCount = Integer.parseInt(argv[++i]);
+			else if ("-listeners".equals(argv[i]))
+				benchmark.listenerCount = Integer.parseInt(argv[++i]);
+			else if ("-seconds".equals(argv[i]))
+				benchmark.seconds = Integer.parseInt(argv[++i]);
+			else if ("-slow".equals(argv[i]))
+				benchmark.slowTime = Long.parseLong(argv[++i]) * 1000;
+			else if (BACKEND_QUEUED.equals(argv[i]) || BACKEND_SHARED.equals(argv[i]) || BACKEND_VIRTUAL.equals(argv[i]))
+				backends.add(argv[i]);
+			else
+				throw new IllegalArgumentException("Unknown argument " + argv[i]);
+		}
+
+		if (backends.isEmpty()) {
+			backends.add(BACKEND_QUEUED);
+			backends.add(BACKEND_SHARED);
+			backends.add(BACKEND_VIRTUAL);
+		}
+
+		System.out.println(benchmark.rate + " events/sec, " + benchmark.pipeCount + " pipes, " + benchmark.listenerCount +
+			" listeners/pipe, " + benchmark.seconds + " sec" + (0 < benchmark.slowTime ? ", slow listener " + (benchmark.slowTime / 1000) + " usec" : ""));
+
+		for (int i=0; i<backends.size(); i++)
+			benchmark.run((String)backends.get(i));
+	}
+
+	/**
+	 * Run the benchmark with a backend.
+	 * @param backend The backend.
+	 */
+	public void run( String backend ) throws InterruptedException
+	{
+		RunnableDispatcher oldDispatcher = EventListenerHelper.getListenerDispatcher();
+		int mode = EventListenerHelper.DISPATCH_PER_LISTENER;
+
+		if (BACKEND_QUEUED.equals(backend)) {
+			mode = EventListenerHelper.DISPATCH_QUEUED;
+		} else if (BACKEND_SHARED.equals(backend)) {
+			EventListenerHelper.setListenerDispatcher(RunnableDispatcher.getSharedRunnableDispatcher());
+		} else if (VirtualThreadDispatcher.isAvailable()) {
+			EventListenerHelper.setListenerDispatcher(VirtualThreadDispatcher.getVirtualThreadDispatcher());
+		} else {
+			System.out.println(backend + ": virtual Threads not available");
+			return;
+		}
+
+		try {
+			int eventsPerPipe = (int)(((long)rate * seconds + pipeCount - 1) / pipeCount);
+			UsbPipeImp[] pipes = new UsbPipeImp[pipeCount];
+			long[][] fireTimes = new long[pipeCount][eventsPerPipe];
+			Stats all = new Stats();
+			Stats fast = new Stats();
+
+			for (int i=0; i<pipeCount; i++) {
+				pipes[i] = new UsbPipeImp(null, null);
+				pipes[i].setEventDispatchMode(mode);
+
+				for (int j=0; j<listenerCount; j++) {
+					boolean slow = 0 == j && 0 < slowTime;
+
+					pipes[i].addUsbPipeListener(new Listener(fireTimes[i], all, slow || 0 == slowTime ? null : fast, slow ? slowTime : 0));
+				}
+			}
+
+			byte[] data = new byte[8];
+			long interval = 1000000000L / rate;
+			long start = System.nanoTime();
+			long total = (long)eventsPerPipe * pipeCount;
+
+			for (long n=0; n<total; n++) {
+				int pipe = (int)(n % pipeCount);
+				int sn = (int)(n / pipeCount);
+				long due = start + n * interval;
+
+				while (System.nanoTime() < due) {
+					long wait = due - System.nanoTime();
+
+					if (1000000 < wait)
+						Thread.sleep(wait / 1000000);
+					else
+						Thread.yield();
+				}
+
+				fireTimes[pipe][sn] = System.nanoTime();
+				pipes[pipe].fireDataEvent(sn, data, 0, data.length);
+			}
+
+			long fireEnd = System.nanoTime();
+			long expected = total * listenerCount;
+			long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT;
+
+			while (all.count.get() < expected && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+
+			long end = System.nanoTime();
+
+			System.out.println(backend + ": fired " + total + " in " + ((fireEnd - start) / 1000000) + " ms, delivered " +
+				all.count.get() + "/" + expected + " in " + ((end - start) / 1000000) + " ms");
+			System.out.println("  latency " + all + (0 < fast.count.get() ? "; other listeners " + fast : ""));
+		} finally {
+			EventListenerHelper.setListenerDispatcher(oldDispatcher);
+		}
+	}
+
+	//*************************************************************************
+	// Instance variables
+
+	private int rate = 10000;
+	private int pipeCount = 500;
+	private int listenerCount = 2;
+	private int seconds = 10;
+	private long slowTime = 0;
+
+	//*************************************************************************
+	// Inner classes
+
+	/**
+	 * Latency statistics.
+	 */
+	private static class Stats
+	{
+		public void record( long latency, boolean inOrder )
+		{
+			count.incrementAndGet();
+			total.addAndGet(latency);
+
+			long current = max.get();
+
+			while (latency > current && !max.compareAndSet(current, latency))
+				current = max.get();
+
+			if (!inOrder)
+				outOfOrder.incrementAndGet();
+		}
+
+		public String toString()
+		{
+			long n = Math.max(1, count.get());
+
+			return "avg " + (total.get() / n / 1000) + " usec, max " + (max.get() / 1000) + " usec, " + outOfOrder.get() + " out of order";
+		}
+
+		public AtomicLong count = new AtomicLong(0);
+		public AtomicLong total = new AtomicLong(0);
+		public AtomicLong max = new AtomicLong(0);
+		public AtomicLong outOfOrder = new AtomicLong(0);
+	}
+
+	/**
+	 * Listener recording the latency of each event.
+	 */
+	private static class Listener implements UsbPipeListener
+	{
+		public Listener( long[] times, Stats all, Stats fast, long slow )
+		{
+			fireTimes = times;
+			allStats = all;
+			fastStats = fast;
+			slowTime = slow;
+		}
+
+		public void dataEventOccurred( UsbPipeDataEvent event )
+		{
+			long now = System.nanoTime();
+			long sn = event.getSequenceNumber();
+			long latency = now - fireTimes[(int)sn];
+			boolean inOrder = sn == last + 1;
+
+			last = sn;
+
+			allStats.record(latency, inOrder);
+
+			if (null != fastStats)
+				fastStats.record(latency, inOrder);
+
+			if (0 < slowTime) {
+				long until = now + slowTime;
+
+				while (System.nanoTime() < until)
+					;
+			}
+		}
+
+		public void errorEventOccurred( UsbPipeErrorEvent event ) { }
+
+		private long[] fireTimes = null;
+		private Stats allStats = null;
+		private Stats fastStats = null;
+		private long slowTime = 0;
+		private long last = -1;
+	}
+
+	//*************************************************************************
+	// Class constants
+
+	public static final String BACKEND_QUEUED = "queued";
+	public static final String BACKEND_SHARED = "shared";
+	public static final String BACKEND_VIRTUAL = "virtual";
+
+	/** The number of milliseconds to wait for all events to be delivered. */
+	public static final long DRAIN_TIMEOUT = 30000;
+
+}
@@ -0,0 +1,427 @@
+package com.ibm.jusb.tools;
+
+/*
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.usb.*;
+import javax.usb.event.*;
+
+import com.ibm.jusb.*;
+import com.ibm.jusb.os.*;
+
+/**
+ * Multi-threaded submission stress test of UsbPipeImp.
+ * <p>
+ * A number of Threads submit concurrently to one UsbPipeImp, mixing synchronous and asynchronous
+ * byte[] submissions and List submissions; some synchronous submissions are made with the
+ * submitting Thread interrupted.  The UsbPipeOsImp is a loopback that completes each
+ * submission on one of a number of completion Threads.  When all submissions are done this checks that:
+ * <ul>
+ * <li>every sequence number from 0 up to the number of submissions was assigned exactly once,</li>
+ * <li>the sequence numbers each Thread's submissions reached the UsbPipeOsImp with are strictly increasing,</li>
+ * <li>the sequence numbers within each List submission are consecutive,</li>
+ * <li>each submission was completed, and fired a data event, exactly once,</li>
+ * <li>the pipe is idle.</li>
+ * </ul>
+ * The defaults are 8 submitting Threads making 20000 submissions each, with 4 completion Threads,
+ * Lists of 4 UsbIrps, and 1 in 50 synchronous submissions interrupted.
+ * <pre>
+ * UsbPipeStress [-threads n] [-submissions n] [-completers n] [-list n] [-interrupt n]
+ * </pre>
+ * This exits with status 1 if any check fails.
+ * @author Dan Streetman
+ */
+public class UsbPipeStress
+{
+	/** Main */
+	public static void main( String[] argv ) throws Exception
+	{
+		UsbPipeStress stress = new UsbPipeStress();
+
+		for (int i=0; i<argv.length; i++) {
+			if ("-threads".equals(argv[i]))
+				stress.threadCount = Integer.parseInt(argv[++i]);
+			else if ("-submissions".equals(argv[i]))
+				stress.submissionCount = Integer.parseInt(argv[++i]);
+			else if ("-completers".equals(argv[i]))
+				stress.completerCount = Integer.parseInt(argv[++i]);
+			else if ("-list".equals(argv[i]))
+				stress.listSize = Integer.parseInt(argv[++i]);
+			else if ("-interrupt".equals(argv[i]))
+				stress.interruptRate = Integer.parseInt(argv[++i]);
+			else
+				throw new IllegalArgumentException("Unknown argument " + argv[i]);
+		}
+
+		System.out.println(stress.threadCount + " threads, " + stress.submissionCount + " submissions/thread, " +
+			stress.completerCount + " completers, list size " + stress.listSize + ", interrupt 1 in " + stress.interruptRate);
+
+		if (!stress.run())
+			System.exit(1);
+	}
+
+	/**
+	 * Run the stress test.
+	 * @return If all checks passed.
+	 */
+	public boolean run() throws InterruptedException
+	{
+		int max = threadCount * submissionCount * Math.max(1, listSize);
+
+		submitted = new AtomicIntegerArray(max);
+		completed = new AtomicIntegerArray(max);
+		events = new AtomicIntegerArray(max);
+
+		LoopbackUsbPipeOsImp loopback = new LoopbackUsbPipeOsImp();
+		UsbPipeImp pipe = new UsbPipeImp(null, loopback) {
+				public boolean isOpen() { return true; }
+			};
+
+		pipe.addUsbPipeListener(new Listener());
+
+		Thread[] completers = new Thread[completerCount];
+		for (int i=0; i<completerCount; i++) {
+			completers[i] = new Thread(new Completer(loopback), "UsbPipeStress Completer " + i);
+			completers[i].setDaemon(true);
+			completers[i].start();
+		}
+
+		Thread[] submitters = new Thread[threadCount];
+		long start = System.currentTimeMillis();
+
+		for (int i=0; i<threadCount; i++) {
+			submitters[i] = new Thread(new Submitter(pipe, i), "UsbPipeStress Submitter " + i);
+			submitters[i].start();
+		}
+
+		for (int i=0; i<threadCount; i++)
+			submitters[i].join();
+
+		long submitEnd = System.currentTimeMillis();
+		long total = pipe.getSequenceNumber();
+		long deadline = submitEnd + DRAIN_TIMEOUT;
+
+		while ((!pipe.isIdle() || eventCount.get() < total) && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+
+		System.out.println(total + " submissions in " + (submitEnd - start) + " ms, " + interruptCount.get() + " interrupted");
+
+		if (!pipe.isIdle())
+			fail("Pipe not idle, " + loopback.getQueueSize() + " submissions queued");
+
+		if (total > max) {
+			fail("Sequence number " + total + " is beyond the " + max + " submissions made");
+			total = max;
+		}
+
+		for (int i=0; i<(int)total; i++) {
+			if (1 != submitted.get(i))
+				fail("Sequence number " + i + " submitted " + submitted.get(i) + " times");
+			if (1 != completed.get(i))
+				fail("Sequence number " + i + " completed " + completed.get(i) + " times");
+			if (1 != events.get(i))
+				fail("Sequence number " + i + " fired " + events.get(i) + " data events");
+		}
+
+		for (int i=(int)total; i<max; i++)
+			if (0 != submitted.get(i))
+				fail("Sequence number " + i + " submitted, beyond the pipe's sequence number " + total);
+
+		for (int i=0; i<completerCount; i++)
+			completers[i].interrupt();
+
+		if (0 == failures.get())
+			System.out.println("ok");
+		else
+			System.out.println(failures.get() + " failures");
+
+		return 0 == failures.get();
+	}
+
+	//*************************************************************************
+	// Private methods
+
+	/**
+	 * Record a failure.
+	 * <p>
+	 * Only the first few failures are printed.
+	 * @param message The failure.
+	 */
+	private void fail( String message )
+	{
+		if (MAX_REPORTED > failures.getAndIncrement())
+			System.out.println("FAIL: " + message);
+	}
+
+	/**
+	 * Record a sequence number reaching the UsbPipeOsImp.
+	 * @param sn The sequence number.
+	 * @param last The last sequence number submitted by the current Thread.
+	 */
+	private void submitted( long sn, long[] last )
+	{
+		if (0 > sn || submitted.length() <= sn) {
+			fail("Sequence number " + sn + " out of range");
+			return;
+		}
+
+		if (sn <= last[0])
+			fail(Thread.currentThread().getName() + " submitted sequence number " + sn + " after " + last[0]);
+
+		last[0] = sn;
+		submitted.incrementAndGet((int)sn);
+	}
+
+	//*************************************************************************
+	// Instance variables
+
+	private int threadCount = 8;
+	private int submissionCount = 20000;
+	private int completerCount = 4;
+	private int listSize = 4;
+	private int interruptRate = 50;
+
+	private AtomicIntegerArray submitted = null;
+	private AtomicIntegerArray completed = null;
+	private AtomicIntegerArray events = null;
+
+	private AtomicLong eventCount = new AtomicLong(0);
+	private AtomicInteger interruptCount = new AtomicInteger(0);
+	private AtomicInteger failures = new AtomicInteger(0);
+
+	/* The last sequence number each submitting Thread passed to the UsbPipeOsImp. */
+	private ThreadLocal lastSequenceNumber = new ThreadLocal() {
+			protected Object initialValue() { return new long[] { -1 }; }
+		};
+
+	//*************************************************************************
+	// Inner classes
+
+	/**
+	 * UsbPipeOsImp that queues each submission to be completed by a Completer.
+	 */
+	private class LoopbackUsbPipeOsImp extends AbstractUsbPipeOsImp
+	{
+		public void asyncSubmit( UsbIrpImp irp ) throws UsbException
+		{
+			submitted(irp.getSequenceNumber(), (long[])lastSequenceNumber.get());
+
+			queue.add(irp);
+		}
+
+		/** The loopback completes everything it is given, so just wait for that. */
+		public void abortAllSubmissions()
+		{
+			while (!queue.isEmpty())
+				Thread.yield();
+		}
+
+		public int getQueueSize() { return queue.size(); }
+
+		public UsbIrpImp take() throws InterruptedException { return (UsbIrpImp)queue.take(); }
+
+		private BlockingQueue queue = new LinkedBlockingQueue();
+	}
+
+	/**
+	 * Completes the submissions queued to the LoopbackUsbPipeOsImp.
+	 */
+	private class Completer implements Runnable
+	{
+		public Completer( LoopbackUsbPipeOsImp osImp ) { loopback = osImp; }
+
+		public void run()
+		{
+			while (true) {
+				UsbIrpImp irp = null;
+
+				try {
+					irp = loopback.take();
+				} catch ( InterruptedException iE ) {
+					return;
+				}
+
+				/* Read before completing; once completed, the UsbIrpImp may be recycled and resubmitted. */
+				long sn = irp.getSequenceNumber();
+
+				try {
+					if (0 <= sn && completed.length() > sn)
+						completed.incrementAndGet((int)sn);
+
+					irp.setDataLength(irp.getLength());
+					irp.complete();
+				} catch ( Throwable t ) {
+					fail("Completing sequence number " + sn + " threw " + t);
+				}
+			}
+		}
+
+		private LoopbackUsbPipeOsImp loopback = null;
+	}
+
+	/**
+	 * Counts the data events of each sequence number.
+	 */
+	private class Listener implements UsbPipeListener
+	{
+		public void dataEventOccurred( UsbPipeDataEvent event )
+		{
+			long sn = event.getSequenceNumber();
+
+			if (0 <= sn && events.length() > sn)
+				events.incrementAndGet((int)sn);
+			else
+				fail("Data event for sequence number " + sn + " out of range");
+
+			eventCount.incrementAndGet();
+		}
+
+		public void errorEventOccurred( UsbPipeErrorEvent event )
+		{
+			fail("Error event for sequence number " + event.getSequenceNumber() + ": " + event.getUsbException());
+		}
+	}
+
+	/**
+	 * Submits to the pipe.
+	 */
+	private class Submitter implements Runnable
+	{
+		public Submitter( UsbPipeImp pipe, int seed )
+		{
+			usbPipeImp = pipe;
+			random = new Random(seed);
+		}
+
+		public void run()
+		{
+			byte[] data = new byte[DATA_SIZE];
+			List irps = new ArrayList();
+			List pending = new LinkedList();
+
+			for (int i=0; i<listSize; i++)
+				irps.add(new UsbIrpImp());
+
+			try {
+				for (int i=0; i<submissionCount; i++) {
+					switch (random.nextInt(4)) {
+					case 0:
+						syncSubmit(data);
+						break;
+					case 1:
+						pending.add(usbPipeImp.asyncSubmit(data));
+						if (MAX_PENDING < pending.size())
+							waitFor((UsbPipe.SubmitResult)pending.remove(0));
+						break;
+					case 2:
+						submitList(irps, true);
+						break;
+					default:
+						submitList(irps, false);
+						break;
+					}
+				}
+
+				while (!pending.isEmpty())
+					waitFor((UsbPipe.SubmitResult)pending.remove(0));
+			} catch ( UsbException uE ) {
+				fail(Thread.currentThread().getName() + " submission failed: " + uE);
+			} catch ( RuntimeException rE ) {
+				fail(Thread.currentThread().getName() + " submission threw " + rE);
+			}
+		}
+
+		/** Synchronously submit, sometimes interrupted. */
+		private void syncSubmit( byte[] data ) throws UsbException
+		{
+			boolean interrupt = 0 < interruptRate && 0 == random.nextInt(interruptRate);
+
+			if (interrupt)
+				Thread.currentThread().interrupt();
+
+			try {
+				int length = usbPipeImp.syncSubmit(data);
+
+				if (data.length != length)
+					fail("syncSubmit returned " + length + " instead of " + data.length);
+			} catch ( UsbSubmissionInterruptedException usiE ) {
+				if (!interrupt)
+					fail(Thread.currentThread().getName() + " was not interrupted, but syncSubmit threw " + usiE);
+				else
+					interruptCount.incrementAndGet();
+			} finally {
+				/* The interrupt may have arrived after the submission completed, leaving it still set. */
+				Thread.interrupted();
+			}
+		}
+
+		/** Submit a List and check its sequence numbers are consecutive. */
+		private void submitList( List irps, boolean sync ) throws UsbException
+		{
+			for (int i=0; i<irps.size(); i++)
+				((UsbIrpImp)irps.get(i)).setData(new byte[DATA_SIZE]);
+
+			if (sync) {
+				usbPipeImp.syncSubmit(irps);
+			} else {
+				usbPipeImp.asyncSubmit(irps);
+
+				for (int i=0; i<irps.size(); i++)
+					((UsbIrpImp)irps.get(i)).waitUntilCompleted();
+			}
+
+			long first = ((UsbIrpImp)irps.get(0)).getSequenceNumber();
+
+			for (int i=0; i<irps.size(); i++) {
+				UsbIrpImp irp = (UsbIrpImp)irps.get(i);
+
+				if (!irp.isCompleted())
+					fail("List submission sequence number " + irp.getSequenceNumber() + " not completed");
+				if (first + i != irp.getSequenceNumber())
+					fail("List submission sequence numbers not consecutive: " + first + " then " + irp.getSequenceNumber() + " at " + i);
+			}
+		}
+
+		/** Wait for an asynchronous submission and recycle it. */
+		private void waitFor( UsbPipe.SubmitResult result )
+		{
+			result.waitUntilCompleted();
+
+			if (result.isInUsbException())
+				fail("Sequence number " + result.getSequenceNumber() + " failed: " + result.getUsbException());
+			else if (DATA_SIZE != result.getDataLength())
+				fail("Sequence number " + result.getSequenceNumber() + " transferred " + result.getDataLength());
+
+			result.recycle();
+		}
+
+		private UsbPipeImp usbPipeImp = null;
+		private Random random = null;
+	}
+
+	//*************************************************************************
+	// Class constants
+
+	/** The size of each submission. */
+	public static final int DATA_SIZE = 64;
+
+	/** The number of asynchronous byte[] submissions each Thread keeps in progress. */
+	public static final int MAX_PENDING = 16;
+
+	/** The maximum number of failures printed. */
+	public static final int MAX_REPORTED = 20;
+
+	/** The number of milliseconds to wait for all submissions to complete. */
+	public static final long DRAIN_TIMEOUT = 30000;
+
+}
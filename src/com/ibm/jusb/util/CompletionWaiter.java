@@ -0,0 +1,344 @@
+package com.ibm.jusb.util;
+
+/*
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Completion flag that Threads can wait on.
+ * <p>
+ * Waiting Threads use one of these strategies:
+ * <ul>
+ * <li>{@link #STRATEGY_BLOCK BLOCK} waits on this Object's monitor.</li>
+ * <li>{@link #STRATEGY_PARK PARK} parks the Thread using LockSupport, avoiding the monitor.</li>
+ * <li>{@link #STRATEGY_SPIN_PARK SPIN_PARK} spins for a short time before parking;
+ * this has the lowest latency for submissions that complete quickly, at the cost of CPU time.</li>
+ * </ul>
+ * The strategy only affects waiting; {@link #notifyWaiters() notification} wakes
+ * Threads waiting with any strategy.
+ * <p>
+ * Timed waits return once the timeout has passed, and an interrupted wait
+ * returns immediately with the Thread's interrupt status set.
+ * <p>
+ * The default strategy is taken from the {@link #STRATEGY_PROPERTY strategy property}
+ * ("block", "park", or "spin") and may be changed with {@link #setDefaultStrategy(int) setDefaultStrategy}.
+ * @author Dan Streetman
+ */
+public class CompletionWaiter
+{
+	/** Constructor, using the default strategy. */
+	public CompletionWaiter() { this( getDefaultStrategy() ); }
+
+	/**
+	 * Constructor.
+	 * @param strategy The wait strategy.
+	 * @throws IllegalArgumentException If the strategy is not valid.
+	 */
+	public CompletionWaiter( int strategy ) { setStrategy( strategy ); }
+
+	//*************************************************************************
+	// Public methods
+
+	/** @return If completed. */
+	public boolean isCompleted() { return completed; }
+
+	/**
+	 * Set completed.
+	 * <p>
+	 * This does not wake any waiting Threads; use {@link #notifyWaiters() notifyWaiters}
+	 * or {@link #complete() complete}.
+	 * @param c If completed.
+	 */
+	public void setCompleted( boolean c ) { completed = c; }
+
+	/** Set completed and wake all waiting Threads. */
+	public void complete()
+	{
+		setCompleted( true );
+
+		notifyWaiters();
+	}
+
+	/** Reset to not completed, discarding any stale waiters. */
+	public void reset()
+	{
+		completed = false;
+		waiters.set( null );
+	}
+
+	/** Wake all waiting Threads. */
+	public void notifyWaiters()
+	{
+		WaitNode node = (WaitNode)waiters.getAndSet( null );
+
+		while (null != node) {
+			Thread thread = node.thread;
+
+			node.notified = true;
+
+			if (null != thread)
+				LockSupport.unpark( thread );
+
+			node = node.next;
+		}
+
+		if (0 < blockCount) {
+			synchronized ( this ) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Wait until completed.
+	 * <p>
+	 * If both the msecs and nsecs are 0, this waits forever.
+	 * @param msecs The number of milliseconds to wait.
+	 * @param nsecs The additional number of nanoseconds to wait.
+	 * @return If completed.
+	 */
+	public boolean waitUntilCompleted( long msecs, int nsecs )
+	{
+		if (completed)
+			return true;
+
+		long timeout = 0;
+
+		if (0 < msecs || 0 < nsecs)
+			timeout = (msecs >= Long.MAX_VALUE / 1000000) ? 0 : Math.max( 1, (msecs * 1000000) + nsecs );
+
+		switch (strategy) {
+		case STRATEGY_BLOCK:
+			return blockUntilCompleted( timeout );
+		case STRATEGY_SPIN_PARK:
+			for (int i=0; i<spinCount; i++)
+				if (completed)
+					return true;
+			return parkUntilCompleted( timeout );
+		case STRATEGY_PARK:
+		default:
+			return parkUntilCompleted( timeout );
+		}
+	}
+
+	/** @return The wait strategy. */
+	public int getStrategy() { return strategy; }
+
+	/**
+	 * Set the wait strategy.
+	 * <p>
+	 * This only affects later waits.
+	 * @param s The wait strategy.
+	 * @throws IllegalArgumentException If the strategy is not valid.
+	 */
+	public void setStrategy( int s )
+	{
+		checkStrategy( s );
+
+		strategy = s;
+	}
+
+	/** @return The default wait strategy. */
+	public static int getDefaultStrategy() { return defaultStrategy; }
+
+	/**
+	 * Set the default wait strategy.
+	 * <p>
+	 * This only affects CompletionWaiters created later.
+	 * @param s The default wait strategy.
+	 * @throws IllegalArgumentException If the strategy is not valid.
+	 */
+	public static void setDefaultStrategy( int s )
+	{
+		checkStrategy( s );
+
+		defaultStrategy = s;
+	}
+
+	/** @return The number of times SPIN_PARK checks for completion before parking. */
+	public static int getSpinCount() { return spinCount; }
+
+	/**
+	 * Set the number of times SPIN_PARK checks for completion before parking.
+	 * @param count The spin count.
+	 * @throws IllegalArgumentException If the count is less than 0.
+	 */
+	public static void setSpinCount( int count )
+	{
+		if (0 > count)
+			throw new IllegalArgumentException("Spin count cannot be less than 0");
+
+		spinCount = count;
+	}
+
+	//*************************************************************************
+	// Protected methods
+
+	/**
+	 * Wait on the monitor.
+	 * @param timeout The timeout in nanoseconds, or 0 to wait forever.
+	 * @return If completed.
+	 */
+	protected boolean blockUntilCompleted( long timeout )
+	{
+		long deadline = System.nanoTime() + timeout;
+
+		synchronized ( this ) {
+			blockCount++;
+
+			try {
+				while (!completed) {
+					long remaining = deadline - System.nanoTime();
+
+					if (0 != timeout && 0 >= remaining)
+						break;
+
+					try {
+						if (0 == timeout)
+							wait();
+						else
+							wait( remaining / 1000000, (int)(remaining % 1000000) );
+					} catch ( InterruptedException iE ) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			} finally {
+				blockCount--;
+			}
+		}
+
+		return completed;
+	}
+
+	/**
+	 * Park until completed.
+	 * <p>
+	 * A {@link #notifyWaiters() notification} detaches all parked Threads' nodes.  If this
+	 * is woken but not completed, for example by a late notification of a previous use of a
+	 * reset and reused CompletionWaiter, its node is pushed again before parking again.
+	 * @param timeout The timeout in nanoseconds, or 0 to wait forever.
+	 * @return If completed.
+	 */
+	protected boolean parkUntilCompleted( long timeout )
+	{
+		long deadline = System.nanoTime() + timeout;
+		WaitNode node = null;
+
+		try {
+			while (!completed) {
+				if (null == node || node.notified) {
+					if (null != node)
+						node.thread = null;
+
+					node = new WaitNode( Thread.currentThread() );
+
+					do {
+						node.next = (WaitNode)waiters.get();
+					} while (!waiters.compareAndSet( node.next, node ));
+
+					/* Check again, in case this completed before the node was pushed. */
+					continue;
+				}
+
+				if (Thread.currentThread().isInterrupted())
+					break;
+
+				if (0 == timeout) {
+					LockSupport.park();
+				} else {
+					long remaining = deadline - System.nanoTime();
+
+					if (0 >= remaining)
+						break;
+
+					LockSupport.parkNanos( remaining );
+				}
+			}
+		} finally {
+			if (null != node)
+				node.thread = null;
+		}
+
+		return completed;
+	}
+
+	/**
+	 * Check a strategy.
+	 * @param s The strategy.
+	 * @throws IllegalArgumentException If the strategy is not valid.
+	 */
+	protected static void checkStrategy( int s )
+	{
+		if (STRATEGY_BLOCK != s && STRATEGY_PARK != s && STRATEGY_SPIN_PARK != s)
+			throw new IllegalArgumentException("Invalid wait strategy " + s);
+	}
+
+	/**
+	 * Get the strategy from the system property.
+	 * @return The strategy, or PARK if the property is not set or not valid.
+	 */
+	private static int getPropertyStrategy()
+	{
+		String value = null;
+
+		try { value = System.getProperty( STRATEGY_PROPERTY ); }
+		catch ( SecurityException sE ) { }
+
+		if ("block".equalsIgnoreCase( value ))
+			return STRATEGY_BLOCK;
+		else if ("spin".equalsIgnoreCase( value ))
+			return STRATEGY_SPIN_PARK;
+		else
+			return STRATEGY_PARK;
+	}
+
+	//*************************************************************************
+	// Instance variables
+
+	private volatile boolean completed = false;
+	private volatile int strategy = STRATEGY_PARK;
+	private volatile int blockCount = 0;
+	private AtomicReference waiters = new AtomicReference();
+
+	private static volatile int defaultStrategy = getPropertyStrategy();
+	private static volatile int spinCount = CompletionWaiter.DEFAULT_SPIN_COUNT;
+
+	//*************************************************************************
+	// Inner classes
+
+	/** Node in the stack of parked Threads. */
+	private static class WaitNode
+	{
+		public WaitNode( Thread t ) { thread = t; }
+
+		public volatile Thread thread = null;
+		public volatile boolean notified = false;
+		public WaitNode next = null;
+	}
+
+	//*************************************************************************
+	// Class constants
+
+	/** Wait on the monitor. */
+	public static final int STRATEGY_BLOCK = 0;
+	/** Park using LockSupport. */
+	public static final int STRATEGY_PARK = 1;
+	/** Spin, then park using LockSupport. */
+	public static final int STRATEGY_SPIN_PARK = 2;
+
+	/** The default spin count. */
+	public static final int DEFAULT_SPIN_COUNT = 1000;
+
+	/** The system property used for the default strategy. */
+	public static final String STRATEGY_PROPERTY = "com.ibm.jusb.util.CompletionWaiter.strategy";
+
+}
@@ -0,0 +1,30 @@
+package com.ibm.jusb.util;
+
+/*
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.util.*;
+
+/**
+ * Interface to select the events a listener gets.
+ * <p>
+ * A filter is tested on the Thread firing the event, before anything is
+ * queued for the listener, so it must be fast and must not block.
+ * @author Dan Streetman
+ */
+public interface EventFilter
+{
+	/**
+	 * If the event should be fired to the listener.
+	 * @param event The event.
+	 * @return If the event should be fired to the listener.
+	 */
+	public boolean accept(EventObject event);
+
+}
@@ -13,6 +13,36 @@ import java.util.*;
 
 /**
  * Helper class to handle multiplexing Events to listeners.
+ * <p>
+ * Events are fired on the {@link com.ibm.jusb.util.RunnableDispatcher#getSharedRunnableDispatcher() shared}
+ * RunnableDispatcher's Threads, so the number of Threads does not grow with the number of helpers.
+ * Each helper's events are still fired one at a time, in order.
+ * <p>
+ * The listeners are kept in an array that is replaced, never modified, when a listener
+ * is added or removed, so events are fired without locking or copying.  Each event is
+ * fired to the listeners registered when it occurred.
+ * <p>
+ * In the {@link #DISPATCH_QUEUED queued} dispatch mode (the default) listeners are called on a
+ * RunnableDispatcher Thread; a listener that blocks delays this helper's later events and holds
+ * one of the shared Threads.  In the {@link #DISPATCH_INLINE inline} dispatch mode listeners are
+ * called directly on the Thread that fired the event, avoiding the queue and Thread handoff;
+ * a listener that blocks then blocks the firing Thread, which is usually the platform's completion Thread.
+ * A RuntimeException thrown by a listener is caught and ignored, in every mode, so it neither
+ * keeps the event from the other listeners nor, in the inline mode, escapes into the firing Thread,
+ * where it would keep the submission from completing.
+ * In the {@link #DISPATCH_PER_LISTENER per-listener} dispatch mode each listener has its own queue,
+ * so a slow listener delays only its own later events; each listener still receives events in order.
+ * The per-listener queues run on virtual Threads if the JVM {@link com.ibm.jusb.util.VirtualThreadDispatcher supports}
+ * them, or on the shared RunnableDispatcher otherwise.
+ * <p>
+ * A listener may be added with an {@link com.ibm.jusb.util.EventFilter EventFilter}; the
+ * filter is tested before the event is queued, and if no listener accepts an event nothing
+ * is queued for it.
+ * <p>
+ * Each listener has {@link com.ibm.jusb.util.ListenerMetrics metrics} recording its invocations,
+ * execution time, and the time events waited for it, which can be used to find slow listeners.
+ * Recording costs two clock reads and several atomic updates per listener per event, so it is
+ * off unless {@link #setMetricsEnabled(boolean) enabled} for this helper.
  * @author Dan Streetman
  */
 public class EventListenerHelper implements EventListener
@@ -24,24 +54,158 @@ public class EventListenerHelper implements EventListener
 	 * Add a listener.
 	 * @param listener the listener to add.
 	 */
-	public void addEventListener( EventListener listener )
+	public void addEventListener( EventListener listener ) { addEventListener( listener, null ); }
+
+	/**
+	 * Add a listener with a filter.
+	 * @param listener the listener to add.
+	 * @param filter the filter selecting the events to fire to the listener, or null to fire all events.
+	 */
+	public synchronized void addEventListener( EventListener listener, EventFilter filter )
 	{
-		listeners.add( listener );
+		ListenerEntry[] newEntries = new ListenerEntry[entries.length + 1];
+
+		System.arraycopy( entries, 0, newEntries, 0, entries.length );
+		newEntries[entries.length] = new ListenerEntry( listener, filter );
+		newEntries[entries.length].getListenerMetrics().setSlowThreshold( slowThreshold );
+		newEntries[entries.length].getListenerMetrics().setSlowListenerReporter( slowListenerReporter );
 
-		manager.setMaxSize(listeners.size() + 1);
+		setListenerEntries( newEntries );
 	}
 
 	/**
 	 * Remove a listener.
 	 * @param listener the listener to remove.
 	 */
-	public void removeEventListener( EventListener listener )
+	public synchronized void removeEventListener( EventListener listener )
+	{
+		for (int i=0; i<entries.length; i++) {
+			if (listener.equals( entries[i].getEventListener() )) {
+				ListenerEntry[] newEntries = new ListenerEntry[entries.length - 1];
+
+				System.arraycopy( entries, 0, newEntries, 0, i );
+				System.arraycopy( entries, i + 1, newEntries, i, newEntries.length - i );
+
+				setListenerEntries( newEntries );
+				return;
+			}
+		}
+	}
+
+	/** @return The dispatch mode. */
+	public int getDispatchMode() { return dispatchMode; }
+
+	/**
+	 * Set the dispatch mode.
+	 * <p>
+	 * Events already queued when switching modes are still fired as they were
+	 * queued, so they may be fired after later events.
+	 * @param mode The dispatch mode.
+	 * @throws IllegalArgumentException If the mode is not valid.
+	 */
+	public void setDispatchMode( int mode )
+	{
+		if (DISPATCH_QUEUED != mode && DISPATCH_INLINE != mode && DISPATCH_PER_LISTENER != mode)
+			throw new IllegalArgumentException("Invalid dispatch mode " + mode);
+
+		dispatchMode = mode;
+	}
+
+	/**
+	 * Get the RunnableManager used to fire events.
+	 * <p>
+	 * This may be used to set a bounded queue and
+	 * {@link com.ibm.jusb.util.RunnableManager#setOverflowPolicy(int) overflow policy}.
+	 * @return The RunnableManager.
+	 */
+	public RunnableManager getRunnableManager() { return manager; }
+
+	/** @return If listener metrics are recorded. */
+	public boolean isMetricsEnabled() { return metricsEnabled; }
+
+	/**
+	 * Set if listener metrics are recorded.
+	 * <p>
+	 * Events already queued when metrics are enabled are not recorded.
+	 * @param enabled If metrics should be recorded.
+	 */
+	public void setMetricsEnabled( boolean enabled ) { metricsEnabled = enabled; }
+
+	/** @return The slow threshold of this helper's listeners, in nanoseconds, or 0 if there is none. */
+	public long getSlowThreshold() { return slowThreshold; }
+
+	/**
+	 * Set the slow threshold of this helper's current and later listeners.
+	 * <p>
+	 * See {@link com.ibm.jusb.util.ListenerMetrics#setSlowThreshold(long) ListenerMetrics}.
+	 * The default is the {@link com.ibm.jusb.util.ListenerMetrics#getDefaultSlowThreshold() default threshold}.
+	 * @param nsecs The number of nanoseconds a call may take before it is slow, or 0 for no threshold.
+	 * @throws IllegalArgumentException If the threshold is less than 0.
+	 */
+	public synchronized void setSlowThreshold( long nsecs )
+	{
+		if (0 > nsecs)
+			throw new IllegalArgumentException("Slow threshold cannot be less than 0");
+
+		slowThreshold = nsecs;
+
+		for (int i=0; i<entries.length; i++)
+			entries[i].getListenerMetrics().setSlowThreshold( nsecs );
+	}
+
+	/**
+	 * Get the slow listener reporter of this helper's listeners.
+	 * <p>
+	 * The default is the {@link com.ibm.jusb.util.ListenerMetrics#getDefaultSlowListenerReporter() default reporter}.
+	 * @return The slow listener reporter, or null if slow calls are only counted.
+	 */
+	public ListenerMetrics.SlowListenerReporter getSlowListenerReporter() { return slowListenerReporter; }
+
+	/**
+	 * Set the slow listener reporter of this helper's current and later listeners.
+	 * @param reporter The reporter, or null to only count slow calls.
+	 */
+	public synchronized void setSlowListenerReporter( ListenerMetrics.SlowListenerReporter reporter )
 	{
-		listeners.remove( listener );
+		slowListenerReporter = reporter;
 
-		manager.setMaxSize(listeners.size() + 1);
+		for (int i=0; i<entries.length; i++)
+			entries[i].getListenerMetrics().setSlowListenerReporter( reporter );
 	}
 
+	/**
+	 * Get the metrics of the current listeners.
+	 * @return A List of the ListenerMetrics.
+	 */
+	public List getListenerMetrics()
+	{
+		ListenerEntry[] array = entries;
+		List list = new ArrayList( array.length );
+
+		for (int i=0; i<array.length; i++)
+			list.add( array[i].getListenerMetrics() );
+
+		return Collections.unmodifiableList( list );
+	}
+
+	/**
+	 * Get the RunnableDispatcher used for per-listener dispatch.
+	 * <p>
+	 * This is the {@link com.ibm.jusb.util.VirtualThreadDispatcher VirtualThreadDispatcher}
+	 * if virtual Threads are available, or the shared RunnableDispatcher, unless
+	 * {@link #setListenerDispatcher(RunnableDispatcher) set}.
+	 * @return The RunnableDispatcher used for per-listener dispatch.
+	 */
+	public static RunnableDispatcher getListenerDispatcher() { return listenerDispatcher; }
+
+	/**
+	 * Set the RunnableDispatcher used for per-listener dispatch.
+	 * <p>
+	 * This only affects listeners whose queue has not yet been created.
+	 * @param dispatcher The RunnableDispatcher.
+	 */
+	public static void setListenerDispatcher( RunnableDispatcher dispatcher ) { listenerDispatcher = dispatcher; }
+
 	//*************************************************************************
 	// Protected methods
 
@@ -49,12 +213,141 @@ public class EventListenerHelper implements EventListener
 	 * Get the listeners.
 	 * @return the listeners.
 	 */
-	protected List getEventListeners() { return Collections.unmodifiableList( listeners ); }
+	protected List getEventListeners()
+	{
+		ListenerEntry[] array = entries;
+		List list = new ArrayList( array.length );
+
+		for (int i=0; i<array.length; i++)
+			list.add( array[i].getEventListener() );
+
+		return Collections.unmodifiableList( list );
+	}
+
+	/**
+	 * Get the current listener entries.
+	 * <p>
+	 * The array must not be modified.
+	 * @return the listener entries.
+	 */
+	protected ListenerEntry[] getListenerEntries() { return entries; }
+
+	/**
+	 * Get the listener entries whose filters accept an event.
+	 * <p>
+	 * If all entries accept the event this is the current array, which must not be modified.
+	 * @param event The event.
+	 * @return the listener entries accepting the event.
+	 */
+	protected ListenerEntry[] getListenerEntries( EventObject event )
+	{
+		ListenerEntry[] array = entries;
+
+		if (!filtered)
+			return array;
+
+		int count = 0;
+		boolean[] accepted = new boolean[array.length];
+
+		for (int i=0; i<array.length; i++) {
+			EventFilter filter = array[i].getEventFilter();
+
+			if (null == filter || filter.accept( event )) {
+				accepted[i] = true;
+				count++;
+			}
+		}
+
+		return selectListenerEntries( array, accepted, count );
+	}
+
+	/**
+	 * Select listener entries.
+	 * @param array The listener entries.
+	 * @param selected Which entries to select.
+	 * @param count The number of selected entries.
+	 * @return The selected entries, or the same array if all are selected.
+	 */
+	protected ListenerEntry[] selectListenerEntries( ListenerEntry[] array, boolean[] selected, int count )
+	{
+		if (count == array.length)
+			return array;
+
+		if (0 == count)
+			return NO_ENTRIES;
+
+		ListenerEntry[] newArray = new ListenerEntry[count];
+
+		for (int i=0, j=0; i<array.length; i++)
+			if (selected[i])
+				newArray[j++] = array[i];
+
+		return newArray;
+	}
+
+	/** @return If any listener has a filter. */
+	protected boolean hasFilters() { return filtered; }
 
 	/**
 	 * @return If this has listeners.
 	 */
-	protected boolean hasListeners() { return !listeners.isEmpty(); }
+	protected boolean hasListeners() { return 0 < entries.length; }
+
+	/**
+	 * Fire an event to the current listeners that accept it.
+	 * @param runnable The EventRunnable.
+	 */
+	protected void fireEvent(EventRunnable runnable) { fireEvent( runnable, getListenerEntries( runnable.event ) ); }
+
+	/**
+	 * Fire an event to the specified listeners.
+	 * @param runnable The EventRunnable.
+	 * @param array The listener entries to fire the event to.
+	 */
+	protected void fireEvent(EventRunnable runnable, ListenerEntry[] array) { fireEvent( runnable, array, false ); }
+
+	/**
+	 * Fire an event to the specified listeners.
+	 * <p>
+	 * A priority event is queued in the RunnableManager's
+	 * {@link com.ibm.jusb.util.RunnableManager#addPriority(Runnable) priority lane},
+	 * ahead of queued normal events.
+	 * @param runnable The EventRunnable.
+	 * @param array The listener entries to fire the event to.
+	 * @param priority If the event has priority.
+	 */
+	protected void fireEvent(EventRunnable runnable, ListenerEntry[] array, boolean priority)
+	{
+		if (0 == array.length)
+			return;
+
+		runnable.entries = array;
+
+		if (metricsEnabled) {
+			runnable.timed = true;
+			runnable.queueTime = System.nanoTime();
+		}
+
+		switch (dispatchMode) {
+		case DISPATCH_INLINE:
+			runnable.run();
+			break;
+		case DISPATCH_PER_LISTENER:
+			for (int i=0; i<array.length; i++) {
+				if (priority)
+					array[i].getMailbox().addPriority( new ListenerRunnable( runnable, array[i] ) );
+				else
+					array[i].getMailbox().add( new ListenerRunnable( runnable, array[i] ) );
+			}
+			break;
+		default:
+			if (priority)
+				addPriorityRunnable(runnable);
+			else
+				addRunnable(runnable);
+			break;
+		}
+	}
 
 	/**
 	 * Add a Runnable to be executed.
@@ -62,23 +355,172 @@ public class EventListenerHelper implements EventListener
 	 */
 	protected void addRunnable(Runnable runnable) { manager.add(runnable); }
 
+	/**
+	 * Add a priority Runnable to be executed.
+	 * @param runnable The Runnable to be run.
+	 */
+	protected void addPriorityRunnable(Runnable runnable) { manager.addPriority(runnable); }
+
+	/**
+	 * Set the listener entries.
+	 * <p>
+	 * The caller must hold this Object's lock.
+	 * @param newEntries The new listener entries.
+	 */
+	private void setListenerEntries( ListenerEntry[] newEntries )
+	{
+		boolean newFiltered = false;
+
+		for (int i=0; i<newEntries.length; i++)
+			if (null != newEntries[i].getEventFilter())
+				newFiltered = true;
+
+		filtered = newFiltered;
+		entries = newEntries;
+	}
+
 	//**************************************************************************
 	// Instance variables
 
-	private List listeners = new Vector();
+	private volatile ListenerEntry[] entries = NO_ENTRIES;
+	private volatile boolean filtered = false;
+	private volatile int dispatchMode = DISPATCH_QUEUED;
 
-	private RunnableManager manager = new RunnableManager();
+	private volatile boolean metricsEnabled = false;
+	private volatile long slowThreshold = ListenerMetrics.getDefaultSlowThreshold();
+	private volatile ListenerMetrics.SlowListenerReporter slowListenerReporter = ListenerMetrics.getDefaultSlowListenerReporter();
+
+	private RunnableManager manager = new RunnableManager( RunnableDispatcher.getSharedRunnableDispatcher() );
+
+	//**************************************************************************
+	// Class variables
+
+	private static volatile RunnableDispatcher listenerDispatcher =
+		VirtualThreadDispatcher.isAvailable() ? (RunnableDispatcher)VirtualThreadDispatcher.getVirtualThreadDispatcher() : RunnableDispatcher.getSharedRunnableDispatcher();
 
 	//**************************************************************************
 	// Inner classes
 
+	/**
+	 * Runnable that fires one event to each listener.
+	 */
 	public static abstract class EventRunnable implements Runnable
 	{
 		public EventRunnable() { }
 		public EventRunnable(EventObject e) { event = e; }
 
-		public abstract void run();
+		public void run()
+		{
+			ListenerEntry[] array = entries;
+
+			for (int i=0; i<array.length; i++) {
+				try { invoke(array[i]); }
+				catch ( RuntimeException rE ) { }
+			}
+		}
+
+		/**
+		 * Fire the event to one listener, recording its metrics if this is timed.
+		 * @param entry The listener entry.
+		 */
+		public void invoke(ListenerEntry entry)
+		{
+			if (!timed) {
+				fire(entry.getEventListener());
+				return;
+			}
+
+			long start = System.nanoTime();
+
+			try {
+				fire(entry.getEventListener());
+			} finally {
+				entry.getListenerMetrics().record(start - queueTime, System.nanoTime() - start);
+			}
+		}
+
+		/**
+		 * Fire the event to one listener.
+		 * @param listener The listener.
+		 */
+		public abstract void fire(EventListener listener);
 
 		public EventObject event = null;
+		public ListenerEntry[] entries = NO_ENTRIES;
+		public boolean timed = false;
+		public long queueTime = 0;
 	}
+
+	/**
+	 * A registered listener.
+	 */
+	public static class ListenerEntry
+	{
+		/**
+		 * Constructor.
+		 * @param listener The listener.
+		 * @param filter The filter, or null.
+		 */
+		public ListenerEntry( EventListener listener, EventFilter filter )
+		{
+			eventListener = listener;
+			eventFilter = filter;
+			listenerMetrics = new ListenerMetrics( listener );
+		}
+
+		/** @return The listener. */
+		public EventListener getEventListener() { return eventListener; }
+
+		/** @return The filter, or null if the listener gets all events. */
+		public EventFilter getEventFilter() { return eventFilter; }
+
+		/** @return The listener's metrics. */
+		public ListenerMetrics getListenerMetrics() { return listenerMetrics; }
+
+		/**
+		 * Get this listener's own queue, used for per-listener dispatch.
+		 * @return The RunnableManager.
+		 */
+		public synchronized RunnableManager getMailbox()
+		{
+			if (null == mailbox)
+				mailbox = new RunnableManager( getListenerDispatcher() );
+
+			return mailbox;
+		}
+
+		private EventListener eventListener = null;
+		private EventFilter eventFilter = null;
+		private ListenerMetrics listenerMetrics = null;
+		private RunnableManager mailbox = null;
+	}
+
+	/**
+	 * Runnable that fires one event to one listener.
+	 */
+	private static class ListenerRunnable implements Runnable
+	{
+		public ListenerRunnable( EventRunnable runnable, ListenerEntry listenerEntry )
+		{
+			eventRunnable = runnable;
+			entry = listenerEntry;
+		}
+
+		public void run() { eventRunnable.invoke( entry ); }
+
+		private EventRunnable eventRunnable = null;
+		private ListenerEntry entry = null;
+	}
+
+	//**************************************************************************
+	// Class constants
+
+	/** Fire events on the RunnableManager. */
+	public static final int DISPATCH_QUEUED = 0;
+	/** Fire events on the firing Thread. */
+	public static final int DISPATCH_INLINE = 1;
+	/** Fire events on a separate queue for each listener. */
+	public static final int DISPATCH_PER_LISTENER = 2;
+
+	private static final ListenerEntry[] NO_ENTRIES = new ListenerEntry[0];
 }
@@ -0,0 +1,211 @@
+package com.ibm.jusb.util;
+
+/*
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Ring of preallocated, reusable event slots.
+ * <p>
+ * Producers {@link #claim() claim} the next sequence number, fill in the
+ * {@link #getSlot(long) slot} for that sequence, and {@link #publish(long) publish} it.
+ * Claiming is lock-free; if the ring is full the producer yields a few times and then
+ * blocks until the consumer frees a slot.  Published slots are {@link #consume(Object,long,boolean) consumed}
+ * in sequence order, in batches, on a RunnableDispatcher Thread; after each batch
+ * the consumer is dispatched again, if needed, so others sharing the dispatcher get a turn.
+ * <p>
+ * Since the slots are reused, nothing is allocated for each event; a slot's contents
+ * are only valid until its consumption returns.
+ * <p>
+ * This class is Thread-safe.
+ * @author Dan Streetman
+ */
+public abstract class EventRing implements Runnable
+{
+	/**
+	 * Constructor.
+	 * @param slots The slots, whose number must be a power of two.
+	 * @param dispatcher The RunnableDispatcher used to consume the slots.
+	 * @throws IllegalArgumentException If the number of slots is not a power of two.
+	 */
+	public EventRing( Object[] slots, RunnableDispatcher dispatcher )
+	{
+		if (1 > slots.length || 0 != (slots.length & (slots.length - 1)))
+			throw new IllegalArgumentException("Number of slots must be a power of two");
+
+		ringSlots = slots;
+		mask = slots.length - 1;
+		published = new AtomicLongArray( slots.length );
+		runnableDispatcher = dispatcher;
+
+		for (int i=0; i<slots.length; i++)
+			published.set( i, -1 );
+	}
+
+	//*************************************************************************
+	// Public methods
+
+	/**
+	 * Claim the next sequence number.
+	 * <p>
+	 * If the ring is full this waits until a slot is free; it yields up to
+	 * {@link #SPIN_COUNT SPIN_COUNT} times, then blocks.  If interrupted while blocked, this
+	 * keeps waiting and the Thread's interrupted status is set on return.
+	 * The claimed slot must be {@link #publish(long) published}.
+	 * @return The claimed sequence number.
+	 */
+	public long claim()
+	{
+		boolean waited = false;
+		int spins = 0;
+
+		while (true) {
+			long sequence = claimSequence.get();
+
+			if (sequence - consumerSequence >= ringSlots.length) {
+				if (!waited) {
+					waitCount.incrementAndGet();
+					waited = true;
+				}
+
+				if (SPIN_COUNT > spins++)
+					Thread.yield();
+				else
+					waitForSpace( sequence );
+
+				continue;
+			}
+
+			if (claimSequence.compareAndSet( sequence, sequence + 1 ))
+				return sequence;
+		}
+	}
+
+	/**
+	 * Get the slot for a sequence number.
+	 * @param sequence The sequence number.
+	 * @return The slot.
+	 */
+	public Object getSlot( long sequence ) { return ringSlots[(int)(sequence & mask)]; }
+
+	/**
+	 * Publish a claimed slot.
+	 * <p>
+	 * The slot must not be changed after this.
+	 * @param sequence The claimed sequence number.
+	 */
+	public void publish( long sequence )
+	{
+		published.set( (int)(sequence & mask), sequence );
+
+		if (scheduled.compareAndSet( false, true ))
+			runnableDispatcher.dispatch( this );
+	}
+
+	/** Consume a batch of published slots. */
+	public void run()
+	{
+		long next = consumerSequence;
+		long end = next;
+
+		while (published.get( (int)(end & mask) ) == end)
+			end++;
+
+		for (long sequence = next; sequence < end; sequence++) {
+			/* A failing consumer must not stop the later slots. */
+			try { consume( getSlot( sequence ), sequence, sequence == end - 1 ); }
+			catch ( Throwable t ) { }
+		}
+
+		consumerSequence = end;
+
+		if (0 < waiters) {
+			synchronized ( waitLock ) {
+				waitLock.notifyAll();
+			}
+		}
+
+		scheduled.set( false );
+
+		if (published.get( (int)(end & mask) ) == end && scheduled.compareAndSet( false, true ))
+			runnableDispatcher.dispatch( this );
+	}
+
+	/** @return The number of slots. */
+	public int getCapacity() { return ringSlots.length; }
+
+	/** @return The number of claimed slots not yet consumed. */
+	public long getSize() { return claimSequence.get() - consumerSequence; }
+
+	/** @return The number of times a producer waited for the ring to have room. */
+	public long getWaitCount() { return waitCount.get(); }
+
+	//*************************************************************************
+	// Protected methods
+
+	/**
+	 * Consume a slot.
+	 * @param slot The slot.
+	 * @param sequence The slot's sequence number.
+	 * @param endOfBatch If this is the last slot in the current batch.
+	 */
+	protected abstract void consume( Object slot, long sequence, boolean endOfBatch );
+
+	//*************************************************************************
+	// Private methods
+
+	/**
+	 * Block until the consumer has freed the slot for a sequence number.
+	 * @param sequence The sequence number.
+	 */
+	private void waitForSpace( long sequence )
+	{
+		boolean interrupted = false;
+
+		synchronized ( waitLock ) {
+			waiters++;
+
+			try {
+				while (sequence - consumerSequence >= ringSlots.length) {
+					try { waitLock.wait(); }
+					catch ( InterruptedException iE ) { interrupted = true; }
+				}
+			} finally {
+				waiters--;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	//*************************************************************************
+	// Instance variables
+
+	private Object[] ringSlots = null;
+	private int mask = 0;
+	private AtomicLongArray published = null;
+	private RunnableDispatcher runnableDispatcher = null;
+
+	private AtomicLong claimSequence = new AtomicLong( 0 );
+	private volatile long consumerSequence = 0;
+	private AtomicBoolean scheduled = new AtomicBoolean( false );
+	private AtomicLong waitCount = new AtomicLong( 0 );
+
+	private Object waitLock = new Object();
+	private volatile int waiters = 0;
+
+	//*************************************************************************
+	// Class constants
+
+	/** The number of times a producer yields, when the ring is full, before blocking. */
+	public static final int SPIN_COUNT = 64;
+
+}
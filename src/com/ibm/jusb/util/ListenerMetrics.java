@@ -0,0 +1,257 @@
+package com.ibm.jusb.util;
+
+/*
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Dispatch metrics for one listener.
+ * <p>
+ * This counts the listener's invocations, and records the total and maximum time
+ * spent in the listener and the total and maximum time events waited in the queue
+ * before the listener was called.  All times are in nanoseconds.
+ * <p>
+ * Metrics are only recorded if they are {@link com.ibm.jusb.util.EventListenerHelper#setMetricsEnabled(boolean) enabled}
+ * for the listener's EventListenerHelper.
+ * <p>
+ * If a {@link #setSlowThreshold(long) slow threshold} is set, invocations taking longer
+ * are {@link #getSlowCount() counted} and passed to the
+ * {@link #setSlowListenerReporter(ListenerMetrics.SlowListenerReporter) slow listener reporter}, if any.
+ * The {@link #getDefaultSlowListenerReporter() default reporter} writes a line to System.err for each
+ * slow call; with no reporter, slow calls are only counted.
+ * These are normally set through the EventListenerHelper, for all its listeners.
+ * The {@link #getDefaultSlowThreshold() default threshold}, in milliseconds, is taken from the
+ * {@link #SLOW_THRESHOLD_PROPERTY threshold property}.
+ * <p>
+ * This class is Thread-safe.
+ * @author Dan Streetman
+ */
+public class ListenerMetrics
+{
+	/**
+	 * Constructor.
+	 * @param listener The listener.
+	 */
+	public ListenerMetrics( EventListener listener ) { eventListener = listener; }
+
+	//*************************************************************************
+	// Public methods
+
+	/** @return The listener. */
+	public EventListener getEventListener() { return eventListener; }
+
+	/** @return The number of times the listener was called. */
+	public long getInvocationCount() { return invocationCount.get(); }
+
+	/** @return The total time spent in the listener. */
+	public long getTotalExecutionTime() { return totalExecutionTime.get(); }
+
+	/** @return The longest time spent in one call to the listener. */
+	public long getMaxExecutionTime() { return maxExecutionTime.get(); }
+
+	/** @return The total time events waited before the listener was called. */
+	public long getTotalQueueWaitTime() { return totalQueueWaitTime.get(); }
+
+	/** @return The longest time an event waited before the listener was called. */
+	public long getMaxQueueWaitTime() { return maxQueueWaitTime.get(); }
+
+	/** @return The number of calls that took longer than the slow threshold. */
+	public long getSlowCount() { return slowCount.get(); }
+
+	/**
+	 * Record one call to the listener.
+	 * @param queueWaitTime The time the event waited before the call.
+	 * @param executionTime The time spent in the listener.
+	 */
+	public void record( long queueWaitTime, long executionTime )
+	{
+		invocationCount.incrementAndGet();
+		totalExecutionTime.addAndGet( executionTime );
+		totalQueueWaitTime.addAndGet( queueWaitTime );
+		updateMax( maxExecutionTime, executionTime );
+		updateMax( maxQueueWaitTime, queueWaitTime );
+
+		long threshold = slowThreshold;
+
+		if (0 < threshold && executionTime > threshold) {
+			slowCount.incrementAndGet();
+
+			SlowListenerReporter reporter = slowListenerReporter;
+
+			if (null != reporter)
+				reporter.slowListener( this, executionTime );
+		}
+	}
+
+	/** Reset all metrics to 0. */
+	public void reset()
+	{
+		invocationCount.set( 0 );
+		totalExecutionTime.set( 0 );
+		maxExecutionTime.set( 0 );
+		totalQueueWaitTime.set( 0 );
+		maxQueueWaitTime.set( 0 );
+		slowCount.set( 0 );
+	}
+
+	/** @return A description of the metrics. */
+	public String toString()
+	{
+		return eventListener + " invocations=" + getInvocationCount() + " totalExecutionTime=" + getTotalExecutionTime()
+			+ " maxExecutionTime=" + getMaxExecutionTime() + " totalQueueWaitTime=" + getTotalQueueWaitTime()
+			+ " maxQueueWaitTime=" + getMaxQueueWaitTime() + " slow=" + getSlowCount();
+	}
+
+	/** @return The slow threshold, or 0 if there is none. */
+	public long getSlowThreshold() { return slowThreshold; }
+
+	/**
+	 * Set the slow threshold.
+	 * @param nsecs The number of nanoseconds a call may take before it is slow, or 0 for no threshold.
+	 * @throws IllegalArgumentException If the threshold is less than 0.
+	 */
+	public void setSlowThreshold( long nsecs )
+	{
+		if (0 > nsecs)
+			throw new IllegalArgumentException("Slow threshold cannot be less than 0");
+
+		slowThreshold = nsecs;
+	}
+
+	/** @return The slow listener reporter, or null. */
+	public SlowListenerReporter getSlowListenerReporter() { return slowListenerReporter; }
+
+	/**
+	 * Set the slow listener reporter.
+	 * @param reporter The reporter, or null to only count slow calls.
+	 */
+	public void setSlowListenerReporter( SlowListenerReporter reporter ) { slowListenerReporter = reporter; }
+
+	/**
+	 * Get the default slow threshold.
+	 * @return The slow threshold from the {@link #SLOW_THRESHOLD_PROPERTY threshold property}, in nanoseconds, or 0.
+	 */
+	public static long getDefaultSlowThreshold() { return defaultSlowThreshold; }
+
+	/**
+	 * Get the default slow listener reporter.
+	 * <p>
+	 * This writes a line to System.err for each slow call.
+	 * @return The default slow listener reporter.
+	 */
+	public static SlowListenerReporter getDefaultSlowListenerReporter() { return defaultSlowListenerReporter; }
+
+	//*************************************************************************
+	// Private methods
+
+	/**
+	 * Raise a maximum.
+	 * @param max The maximum.
+	 * @param value The new value.
+	 */
+	private static void updateMax( AtomicLong max, long value )
+	{
+		long current = max.get();
+
+		while (value > current && !max.compareAndSet( current, value ))
+			current = max.get();
+	}
+
+	/**
+	 * Get the slow threshold from the system property.
+	 * @return The slow threshold in nanoseconds, or 0 if the property is not set or not valid.
+	 */
+	private static long getPropertySlowThreshold()
+	{
+		try {
+			String value = System.getProperty( SLOW_THRESHOLD_PROPERTY );
+
+			if (null != value && 0 < Long.parseLong( value.trim() ))
+				return Long.parseLong( value.trim() ) * 1000000;
+		} catch ( NumberFormatException nfE ) {
+		} catch ( SecurityException sE ) {
+		}
+
+		return 0;
+	}
+
+	//*************************************************************************
+	// Instance variables
+
+	private EventListener eventListener = null;
+
+	private AtomicLong invocationCount = new AtomicLong( 0 );
+	private AtomicLong totalExecutionTime = new AtomicLong( 0 );
+	private AtomicLong maxExecutionTime = new AtomicLong( 0 );
+	private AtomicLong totalQueueWaitTime = new AtomicLong( 0 );
+	private AtomicLong maxQueueWaitTime = new AtomicLong( 0 );
+	private AtomicLong slowCount = new AtomicLong( 0 );
+
+	private volatile long slowThreshold = defaultSlowThreshold;
+	private volatile SlowListenerReporter slowListenerReporter = defaultSlowListenerReporter;
+
+	//*************************************************************************
+	// Class variables
+
+	private static long defaultSlowThreshold = getPropertySlowThreshold();
+	private static SlowListenerReporter defaultSlowListenerReporter = new PrintStreamSlowListenerReporter();
+
+	//*************************************************************************
+	// Inner classes
+
+	/**
+	 * Interface to report slow listeners.
+	 * <p>
+	 * This is called on the Thread that called the listener, so it should not block.
+	 */
+	public static interface SlowListenerReporter
+	{
+		/**
+		 * A listener call took longer than the slow threshold.
+		 * @param metrics The listener's metrics.
+		 * @param executionTime The time the call took, in nanoseconds.
+		 */
+		public void slowListener( ListenerMetrics metrics, long executionTime );
+	}
+
+	/**
+	 * SlowListenerReporter that writes a line for each slow call to a PrintStream.
+	 */
+	public static class PrintStreamSlowListenerReporter implements SlowListenerReporter
+	{
+		/** Constructor, writing to whatever System.err is when a slow call is reported. */
+		public PrintStreamSlowListenerReporter() { }
+
+		/**
+		 * Constructor.
+		 * @param stream The PrintStream.
+		 */
+		public PrintStreamSlowListenerReporter( PrintStream stream ) { printStream = stream; }
+
+		public void slowListener( ListenerMetrics metrics, long executionTime )
+		{
+			PrintStream stream = null == printStream ? System.err : printStream;
+
+			stream.println( "Slow listener " + metrics.getEventListener() + " took " + (executionTime / 1000) + " usec, over the "
+				+ (metrics.getSlowThreshold() / 1000) + " usec threshold (" + metrics.getSlowCount() + " slow calls)" );
+		}
+
+		private PrintStream printStream = null;
+	}
+
+	//*************************************************************************
+	// Class constants
+
+	/** The system property used for the slow threshold, in milliseconds. */
+	public static final String SLOW_THRESHOLD_PROPERTY = "com.ibm.jusb.util.ListenerMetrics.slowThreshold";
+
+}
@@ -0,0 +1,137 @@
+package com.ibm.jusb.util;
+
+/*
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Bounded pool of reusable Objects.
+ * <p>
+ * The pool does not create Objects itself; users {@link #get() get} an Object
+ * (creating a new one if the pool is empty) and {@link #put(Object) put} it back
+ * once it is no longer in use.  If the pool is already holding its
+ * {@link #getMaxSize() maximum number} of Objects, further Objects are not
+ * retained and are left to be garbage collected.
+ * <p>
+ * Getting and putting are lock-free; each takes or fills one slot of a fixed array
+ * using compare-and-set.  Objects put while the {@link #setMaxSize(int) maximum size}
+ * is being changed may be discarded.
+ * <p>
+ * This class is Thread-safe.
+ * @author Dan Streetman
+ */
+public class ObjectPool
+{
+	/** Constructor. */
+	public ObjectPool() { this( DEFAULT_MAX_SIZE ); }
+
+	/**
+	 * Constructor.
+	 * @param max The maximum number of Objects to retain.
+	 * @throws IllegalArgumentException If the max is less than 0.
+	 */
+	public ObjectPool( int max ) { setMaxSize( max ); }
+
+	//*************************************************************************
+	// Public methods
+
+	/**
+	 * Get an Object from the pool.
+	 * @return An Object from the pool, or null if the pool is empty.
+	 */
+	public Object get()
+	{
+		AtomicReferenceArray slots = pool;
+
+		for (int i=0; i<slots.length(); i++) {
+			Object object = slots.get( i );
+
+			if (null != object && slots.compareAndSet( i, object, null ))
+				return object;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Put an Object into the pool.
+	 * <p>
+	 * The caller must not use the Object after it has been put into the pool.
+	 * @param object The Object.
+	 * @return If the Object was retained by the pool.
+	 */
+	public boolean put( Object object )
+	{
+		AtomicReferenceArray slots = pool;
+
+		for (int i=0; i<slots.length(); i++) {
+			if (null == slots.get( i ) && slots.compareAndSet( i, null, object ))
+				return true;
+		}
+
+		return false;
+	}
+
+	/** @return The number of Objects currently in the pool. */
+	public int getSize()
+	{
+		AtomicReferenceArray slots = pool;
+		int size = 0;
+
+		for (int i=0; i<slots.length(); i++)
+			if (null != slots.get( i ))
+				size++;
+
+		return size;
+	}
+
+	/** @return The maximum number of Objects this will retain. */
+	public int getMaxSize() { return pool.length(); }
+
+	/**
+	 * Set the maximum number of Objects to retain.
+	 * <p>
+	 * If the pool currently holds more than the new maximum, the
+	 * extra Objects are discarded.
+	 * @param max The maximum number of Objects to retain.
+	 * @throws IllegalArgumentException If the max is less than 0.
+	 */
+	public synchronized void setMaxSize( int max )
+	{
+		if (0 > max)
+			throw new IllegalArgumentException("Max size cannot be less than 0");
+
+		AtomicReferenceArray newPool = new AtomicReferenceArray( max );
+		AtomicReferenceArray oldPool = pool;
+
+		pool = newPool;
+
+		if (null == oldPool)
+			return;
+
+		for (int i=0, size=0; i<oldPool.length() && size<max; i++) {
+			Object object = oldPool.getAndSet( i, null );
+
+			if (null != object)
+				newPool.set( size++, object );
+		}
+	}
+
+	//*************************************************************************
+	// Instance variables
+
+	private volatile AtomicReferenceArray pool = null;
+
+	//*************************************************************************
+	// Class constants
+
+	public static final int DEFAULT_MAX_SIZE = 64;
+
+}
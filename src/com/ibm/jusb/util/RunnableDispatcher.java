@@ -0,0 +1,268 @@
+package com.ibm.jusb.util;
+
+/*
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+/**
+ * Bounded pool of Threads that run dispatched Runnables.
+ * <p>
+ * Threads are started only when a Runnable is dispatched and no Thread is idle,
+ * up to the {@link #getMaxThreadCount() maximum}; further Runnables are queued.
+ * Idle Threads exit after a while, so an unused dispatcher holds no Threads.
+ * <p>
+ * Runnables are not run in any particular order relative to each other; a
+ * {@link com.ibm.jusb.util.RunnableManager RunnableManager} using a dispatcher
+ * preserves the order of its own Runnables.  A Runnable that blocks holds one Thread
+ * for as long as it blocks.
+ * <p>
+ * The {@link #getSharedRunnableDispatcher() shared dispatcher} is used for all event
+ * dispatch.  Its thread count is taken from the {@link #THREAD_COUNT_PROPERTY thread count property},
+ * if set, and may be changed with {@link #setMaxThreadCount(int) setMaxThreadCount}.
+ * <p>
+ * This class is Thread-safe.
+ * @author Dan Streetman
+ */
+public class RunnableDispatcher
+{
+	/**
+	 * Constructor.
+	 * @param max The maximum number of Threads.
+	 * @param name The name to use for the Threads.
+	 * @throws IllegalArgumentException If the max is less than 1.
+	 */
+	public RunnableDispatcher( int max, String name )
+	{
+		setMaxThreadCount( max );
+
+		dispatcherName = name;
+	}
+
+	//*************************************************************************
+	// Public methods
+
+	/**
+	 * Dispatch a Runnable.
+	 * <p>
+	 * The Runnable will be run by one of this dispatcher's Threads.
+	 * @param runnable The Runnable.
+	 */
+	public void dispatch( Runnable runnable )
+	{
+		String name = null;
+
+		synchronized ( lock ) {
+			enqueue( runnable );
+
+			if (idleCount >= queueSize) {
+				lock.notify();
+				return;
+			}
+
+			if (threadCount >= maxThreadCount)
+				return;
+
+			threadCount++;
+			name = dispatcherName + " Thread " + (++threadNumber);
+		}
+
+		Thread thread = new Thread( new Worker() );
+		thread.setDaemon( true );
+		thread.setName( name );
+		thread.start();
+	}
+
+	/** @return The maximum number of Threads. */
+	public int getMaxThreadCount() { synchronized ( lock ) { return maxThreadCount; } }
+
+	/**
+	 * Set the maximum number of Threads.
+	 * <p>
+	 * If this is lowered, extra Threads exit once they finish their current Runnable.
+	 * @param max The maximum number of Threads.
+	 * @throws IllegalArgumentException If the max is less than 1.
+	 */
+	public void setMaxThreadCount( int max )
+	{
+		if (1 > max)
+			throw new IllegalArgumentException("Max thread count cannot be less than 1");
+
+		synchronized ( lock ) {
+			maxThreadCount = max;
+			lock.notifyAll();
+		}
+	}
+
+	/** @return The number of Threads currently running. */
+	public int getThreadCount() { synchronized ( lock ) { return threadCount; } }
+
+	/** @return The number of Runnables waiting for a Thread. */
+	public int getQueueSize() { synchronized ( lock ) { return queueSize; } }
+
+	/**
+	 * Get the shared RunnableDispatcher.
+	 * @return The shared RunnableDispatcher.
+	 */
+	public static RunnableDispatcher getSharedRunnableDispatcher() { return sharedRunnableDispatcher; }
+
+	//*************************************************************************
+	// Protected methods
+
+	/**
+	 * Get the next Runnable, waiting if needed.
+	 * @return The next Runnable, or null if the calling Thread should exit.
+	 */
+	protected Runnable take()
+	{
+		long deadline = System.currentTimeMillis() + IDLE_TIMEOUT;
+
+		synchronized ( lock ) {
+			while (0 == queueSize && threadCount <= maxThreadCount) {
+				long remaining = deadline - System.currentTimeMillis();
+
+				if (0 >= remaining)
+					break;
+
+				idleCount++;
+
+				try { lock.wait( remaining ); }
+				catch ( InterruptedException iE ) { }
+
+				idleCount--;
+			}
+
+			if (0 == queueSize || threadCount > maxThreadCount) {
+				threadCount--;
+				return null;
+			}
+
+			return dequeue();
+		}
+	}
+
+	/**
+	 * Add a Runnable to the end of the queue.
+	 * <p>
+	 * The queue is a circular array, so nothing is allocated unless it must grow.
+	 * The caller must hold the lock.
+	 * @param runnable The Runnable.
+	 */
+	private void enqueue( Runnable runnable )
+	{
+		if (queueSize == queue.length) {
+			Runnable[] newQueue = new Runnable[queue.length * 2];
+
+			for (int i=0; i<queueSize; i++)
+				newQueue[i] = queue[(queueHead + i) % queue.length];
+
+			queue = newQueue;
+			queueHead = 0;
+		}
+
+		queue[(queueHead + queueSize++) % queue.length] = runnable;
+	}
+
+	/**
+	 * Remove the Runnable at the start of the queue.
+	 * <p>
+	 * The caller must hold the lock.
+	 * @return The Runnable.
+	 */
+	private Runnable dequeue()
+	{
+		Runnable runnable = queue[queueHead];
+
+		queue[queueHead] = null;
+		queueHead = (queueHead + 1) % queue.length;
+		queueSize--;
+
+		return runnable;
+	}
+
+	/**
+	 * Get the thread count for the shared dispatcher.
+	 * @return The thread count from the property, or the default.
+	 */
+	private static int getPropertyThreadCount()
+	{
+		int defaultCount = Math.max( 2, Runtime.getRuntime().availableProcessors() );
+
+		try {
+			String value = System.getProperty( THREAD_COUNT_PROPERTY );
+
+			if (null != value && 0 < Integer.parseInt( value.trim() ))
+				return Integer.parseInt( value.trim() );
+		} catch ( NumberFormatException nfE ) {
+		} catch ( SecurityException sE ) {
+		}
+
+		return defaultCount;
+	}
+
+	//*************************************************************************
+	// Instance variables
+
+	private String dispatcherName = null;
+	private int threadNumber = 0;
+
+	private Object lock = new Object();
+	private Runnable[] queue = new Runnable[16];
+	private int queueHead = 0;
+	private int queueSize = 0;
+	private int maxThreadCount = 1;
+	private int threadCount = 0;
+	private int idleCount = 0;
+
+	//*************************************************************************
+	// Class variables
+
+	private static RunnableDispatcher sharedRunnableDispatcher =
+		new RunnableDispatcher( getPropertyThreadCount(), "RunnableDispatcher" );
+
+	//*************************************************************************
+	// Inner classes
+
+	/**
+	 * Worker Thread's Runnable.
+	 */
+	private class Worker implements Runnable
+	{
+		public void run()
+		{
+			Runnable runnable = null;
+			boolean exited = false;
+
+			try {
+				while (null != (runnable = take())) {
+					/* A failing Runnable must not take down a shared Thread. */
+					try { runnable.run(); }
+					catch ( Throwable t ) { }
+				}
+
+				exited = true;
+			} finally {
+				/* take() accounts for a Thread exiting normally. */
+				if (!exited) {
+					synchronized ( lock ) {
+						threadCount--;
+					}
+				}
+			}
+		}
+	}
+
+	//*************************************************************************
+	// Class constants
+
+	/** The system property used for the shared dispatcher's thread count. */
+	public static final String THREAD_COUNT_PROPERTY = "com.ibm.jusb.util.RunnableDispatcher.threads";
+
+	/** The number of milliseconds an idle Thread waits before exiting. */
+	public static final long IDLE_TIMEOUT = 60000;
+
+}
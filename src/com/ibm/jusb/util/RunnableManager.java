@@ -10,6 +10,7 @@ package com.ibm.jusb.util;
  */
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * Class to execute (and manage a Queue of) Runnables.
@@ -25,6 +26,31 @@ import java.util.*;
  * if the {@link #setMaxSize(long) max size} is set high enough to never be reached.  However,
  * the default size is 1.  To get an externally synchronized RunnableManager use the inner class
  * {@link com.ibm.jutil.RunnableManager.SynchronizedRunnableManager SynchronizedRunnableManager}.
+ * <p>
+ * A RunnableManager may instead use a {@link com.ibm.jusb.util.RunnableDispatcher RunnableDispatcher},
+ * in which case it has no Thread of its own.  Its Runnables are still run one at a time, in
+ * the order they were added, by whichever dispatcher Thread is available; the max size is
+ * not used unless an {@link #setOverflowPolicy(int) overflow policy} other than
+ * {@link #OVERFLOW_NEW_THREAD NEW_THREAD} is set.  This is Thread-safe in that mode.
+ * <p>
+ * The {@link #setOverflowPolicy(int) overflow policy} determines what happens when a Runnable
+ * is added while the {@link #getMaxSize() max size} is already queued:
+ * <ul>
+ * <li>{@link #OVERFLOW_NEW_THREAD NEW_THREAD} (the default) abandons the current Thread to its queue and
+ * starts a new Thread; with a RunnableDispatcher the queue is instead unbounded.</li>
+ * <li>{@link #OVERFLOW_BLOCK BLOCK} blocks the adding Thread until there is room.</li>
+ * <li>{@link #OVERFLOW_DROP_OLDEST DROP_OLDEST} discards the oldest queued Runnable that has not started.</li>
+ * <li>{@link #OVERFLOW_DROP_NEWEST DROP_NEWEST} discards the Runnable being added.</li>
+ * <li>{@link #OVERFLOW_CALLER_RUNS CALLER_RUNS} runs the Runnable being added on the adding Thread,
+ * ahead of the queued Runnables.</li>
+ * </ul>
+ * The number of {@link #getDroppedCount() dropped} and {@link #getBlockedCount() blocked}
+ * additions is counted.  A Runnable run by this must not add to this with the BLOCK policy,
+ * as it would wait for itself.
+ * <p>
+ * Runnables {@link #addPriority(Runnable) added with priority} go into a separate lane that is
+ * run ahead of all queued normal Runnables, as soon as the Runnable currently running finishes.
+ * Each lane keeps its own order.  The overflow policy is not applied to priority Runnables.
  * @author Dan Streetman
  */
 public class RunnableManager
@@ -49,6 +75,29 @@ public class RunnableManager
 		if (start) start();
 	}
 
+	/**
+	 * Constructor.
+	 * <p>
+	 * This will create a started RunnableManager using the RunnableDispatcher.
+	 * @param dispatcher The RunnableDispatcher.
+	 */
+	public RunnableManager( RunnableDispatcher dispatcher ) { this( dispatcher, true ); }
+
+	/**
+	 * Constructor.
+	 * <p>
+	 * This will create a RunnableManager using the RunnableDispatcher,
+	 * which is started if <i>start</i> is true.
+	 * @param dispatcher The RunnableDispatcher.
+	 * @param start if the new RunnableManager should be automatically started.
+	 */
+	public RunnableManager( RunnableDispatcher dispatcher, boolean start )
+	{
+		runnableDispatcher = dispatcher;
+
+		if (start) start();
+	}
+
 	//*************************************************************************
 	// Public methods
 
@@ -58,19 +107,81 @@ public class RunnableManager
 	 */
 	public void add( Runnable newRunnable )
 	{
-		synchronized (runnable.lock) {
-			if (isRunning() && (getSize() >= getMaxSize())) {
-				stop();
-				start();
+		if (null != runnableDispatcher) {
+			if (!dispatchRunnable.add( newRunnable ))
+				newRunnable.run();
+			return;
+		}
+
+		ManagerRunnable current = runnable;
+		boolean callerRuns = false;
+
+		synchronized (current.lock) {
+			if (current.running && (current.getSize() >= getMaxSize())) {
+				switch (overflowPolicy) {
+				case OVERFLOW_BLOCK:
+					blockedCount.incrementAndGet();
+					current.waitForSpace( getMaxSize() );
+					break;
+				case OVERFLOW_DROP_NEWEST:
+					droppedCount.incrementAndGet();
+					return;
+				case OVERFLOW_DROP_OLDEST:
+					droppedCount.incrementAndGet();
+					if (!current.dropOldest())
+						return;
+					break;
+				case OVERFLOW_CALLER_RUNS:
+					callerRuns = true;
+					current = null;
+					break;
+				default:
+					stop();
+					start();
+					current = null;
+					break;
+				}
+			}
+
+			if (null != current && current == runnable) {
+				current.list.add( newRunnable );
+				current.lock.notifyAll();
+				return;
 			}
 		}
 
+		if (callerRuns) {
+			newRunnable.run();
+			return;
+		}
+
 		synchronized (runnable.lock) {
 			runnable.list.add( newRunnable );
 			runnable.lock.notifyAll();
 		}
 	}
 
+	/**
+	 * Add a priority Runnable.
+	 * <p>
+	 * The Runnable is run before any normal Runnables that have not yet started,
+	 * but after any priority Runnables already added.  It is never dropped or blocked.
+	 * @param newRunnable the Runnable to add.
+	 */
+	public void addPriority( Runnable newRunnable )
+	{
+		if (null != runnableDispatcher) {
+			dispatchRunnable.addPriority( newRunnable );
+			return;
+		}
+
+		synchronized (runnable.lock) {
+			runnable.priorityList.add( newRunnable );
+			runnable.prioritySize = runnable.priorityList.size();
+			runnable.lock.notifyAll();
+		}
+	}
+
 	/**
 	 * Start.
 	 * <p>
@@ -81,6 +192,11 @@ public class RunnableManager
 	 */
 	public void start()
 	{
+		if (null != runnableDispatcher) {
+			dispatchRunnable.start();
+			return;
+		}
+
 		synchronized (runnable.lock) {
 			if (runnable.running)
 				throw new IllegalThreadStateException( "RunnableManager already running" );
@@ -108,6 +224,14 @@ public class RunnableManager
 	 */
 	public void stop()
 	{
+		if (null != runnableDispatcher) {
+			synchronized (this) {
+				dispatchRunnable.stop();
+				dispatchRunnable = new DispatchRunnable();
+			}
+			return;
+		}
+
 		synchronized (runnable.lock) {
 			runnable.running = false;
 			runnable.lock.notifyAll();
@@ -121,9 +245,15 @@ public class RunnableManager
 	 */
 	public boolean isRunning()
 	{
-		return runnable.running;
+		return null != runnableDispatcher ? dispatchRunnable.running : runnable.running;
 	}
 
+	/**
+	 * Get the RunnableDispatcher.
+	 * @return The RunnableDispatcher, or null if this uses its own Thread.
+	 */
+	public RunnableDispatcher getRunnableDispatcher() { return runnableDispatcher; }
+
 	/**
 	 * Get the maximum number of Runnables to queue.
 	 * <p>
@@ -178,7 +308,39 @@ public class RunnableManager
 	 * the one being processed.
 	 * @return The number of Runnables queued.
 	 */
-	public long getSize() { return runnable.getSize(); }
+	public long getSize() { return null != runnableDispatcher ? dispatchRunnable.getSize() : runnable.getSize(); }
+
+	/** @return The overflow policy. */
+	public int getOverflowPolicy() { return overflowPolicy; }
+
+	/**
+	 * Set the overflow policy.
+	 * <p>
+	 * This determines what happens when a Runnable is added while the
+	 * {@link #getMaxSize() max size} is already queued.
+	 * @param policy The overflow policy.
+	 * @throws IllegalArgumentException If the policy is not valid.
+	 */
+	public void setOverflowPolicy( int policy )
+	{
+		switch (policy) {
+		case OVERFLOW_NEW_THREAD:
+		case OVERFLOW_BLOCK:
+		case OVERFLOW_DROP_OLDEST:
+		case OVERFLOW_DROP_NEWEST:
+		case OVERFLOW_CALLER_RUNS:
+			overflowPolicy = policy;
+			break;
+		default:
+			throw new IllegalArgumentException("Invalid overflow policy " + policy);
+		}
+	}
+
+	/** @return The number of Runnables discarded by the DROP_OLDEST or DROP_NEWEST policies. */
+	public long getDroppedCount() { return droppedCount.get(); }
+
+	/** @return The number of times the BLOCK policy blocked an adding Thread. */
+	public long getBlockedCount() { return blockedCount.get(); }
 
 	//*************************************************************************
 	// Instance variables
@@ -187,7 +349,13 @@ public class RunnableManager
 	private long managerCount = ++count;
 	private long threadCount = 0;
 
-	private long maxSize = 1;
+	private volatile long maxSize = 1;
+	private volatile int overflowPolicy = OVERFLOW_NEW_THREAD;
+	private AtomicLong droppedCount = new AtomicLong( 0 );
+	private AtomicLong blockedCount = new AtomicLong( 0 );
+
+	private RunnableDispatcher runnableDispatcher = null;
+	private volatile DispatchRunnable dispatchRunnable = new DispatchRunnable();
 
 	//*************************************************************************
 	// Class variables
@@ -216,23 +384,43 @@ public class RunnableManager
 	{
 		public void run()
 		{
-			while (running || !list.isEmpty()) {
-				while (!list.isEmpty()) {
+			while (running || !list.isEmpty() || 0 < prioritySize) {
+				while (!list.isEmpty() || 0 < prioritySize) {
+					runPriority();
+
 					/* For a large list (size > ~50000), this is amazingly faster
 					 * than pulling one at a time.
 					 */
 					synchronized (lock) {
-						array = list.toArray();
+						array = list.toArray( array );
+						arraySize = list.size();
 						list.clear();
-						size = array.length;
+						next.set( 0 );
 					}
 
-					for (int i=0; i<array.length; i++,size--)
-						((Runnable)array[i]).run();
+					int i = 0;
+
+					while ((i = next.getAndIncrement()) < arraySize) {
+						if (0 < prioritySize)
+							runPriority();
+
+						Runnable r = (Runnable)array[i];
+						array[i] = null;
+
+						inProgress = true;
+						r.run();
+						inProgress = false;
+
+						if (0 < waiters) {
+							synchronized (lock) {
+								lock.notifyAll();
+							}
+						}
+					}
 				}
 
 				synchronized (lock) {
-					while (running && list.isEmpty()) {
+					while (running && list.isEmpty() && 0 == prioritySize) {
 						try { lock.wait(); }
 						catch ( InterruptedException iE ) { }
 					}
@@ -243,16 +431,364 @@ public class RunnableManager
 		public long getSize()
 		{
 			synchronized (lock) {
-				return list.size() + size;
+				return list.size() + Math.max( 0, arraySize - next.get() ) + (inProgress ? 1 : 0) + prioritySize;
+			}
+		}
+
+		/**
+		 * Discard the oldest Runnable that has not started.
+		 * <p>
+		 * Runnables already taken into the array being run are older than those in the list.
+		 * The caller must hold the lock.
+		 * @return If a Runnable was discarded.
+		 */
+		public boolean dropOldest()
+		{
+			int i = next.getAndIncrement();
+
+			if (i < arraySize) {
+				array[i] = null;
+				return true;
 			}
+
+			if (list.isEmpty())
+				return false;
+
+			((LinkedList)list).removeFirst();
+			return true;
 		}
 
-		public Object[] array = null;
+		/** Run all queued priority Runnables. */
+		public void runPriority()
+		{
+			Object[] priorityArray = null;
+
+			synchronized (lock) {
+				if (priorityList.isEmpty())
+					return;
+
+				priorityArray = priorityList.toArray();
+				priorityList.clear();
+				prioritySize = 0;
+			}
+
+			for (int i=0; i<priorityArray.length; i++)
+				((Runnable)priorityArray[i]).run();
+
+			if (0 < waiters) {
+				synchronized (lock) {
+					lock.notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Wait until fewer than max Runnables are queued, or this is stopped.
+		 * <p>
+		 * The caller must hold the lock.
+		 * @param max The max size.
+		 */
+		public void waitForSpace( long max )
+		{
+			waiters++;
+
+			try {
+				while (running && getSize() >= max) {
+					try { lock.wait(); }
+					catch ( InterruptedException iE ) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			} finally {
+				waiters--;
+			}
+		}
+
+		public Object[] array = new Object[16];
 		public Object lock = new Object();
 		public boolean running = false;
-		public List list = new ArrayList();
+		public List list = new LinkedList();
+		public List priorityList = new ArrayList();
+		public volatile int prioritySize = 0;
 
-		private long size = 0;
+		private int arraySize = 0;
+		private AtomicInteger next = new AtomicInteger( 0 );
+		private volatile boolean inProgress = false;
+		private volatile int waiters = 0;
 	}
 
+	/**
+	 * Dispatched Runnable.
+	 * <p>
+	 * This runs all queued Runnables on a RunnableDispatcher Thread.  It is dispatched
+	 * at most once at a time, which keeps the Runnables in order; after each batch it is
+	 * dispatched again, if needed, so other RunnableManagers sharing the dispatcher get a turn.
+	 */
+	protected class DispatchRunnable implements Runnable
+	{
+		/**
+		 * Add a Runnable, applying the overflow policy.
+		 * @param newRunnable The Runnable.
+		 * @return If the Runnable was handled; false if the caller should run it.
+		 */
+		public boolean add( Runnable newRunnable )
+		{
+			boolean dispatch = false;
+
+			synchronized (lock) {
+				if (running && OVERFLOW_NEW_THREAD != overflowPolicy && getSize() >= getMaxSize()) {
+					switch (overflowPolicy) {
+					case OVERFLOW_BLOCK:
+						blockedCount.incrementAndGet();
+						waitForSpace( getMaxSize() );
+						break;
+					case OVERFLOW_DROP_NEWEST:
+						droppedCount.incrementAndGet();
+						return true;
+					case OVERFLOW_DROP_OLDEST:
+						droppedCount.incrementAndGet();
+						if (!dropOldest())
+							return true;
+						break;
+					case OVERFLOW_CALLER_RUNS:
+						return false;
+					}
+				}
+
+				queue.add( newRunnable );
+				dispatch = running && schedule();
+			}
+
+			if (dispatch)
+				runnableDispatcher.dispatch( this );
+
+			return true;
+		}
+
+		/**
+		 * Add a priority Runnable.
+		 * @param newRunnable The Runnable.
+		 */
+		public void addPriority( Runnable newRunnable )
+		{
+			boolean dispatch = false;
+
+			synchronized (lock) {
+				priorityQueue.add( newRunnable );
+				prioritySize = priorityQueue.size();
+				dispatch = running && schedule();
+			}
+
+			if (dispatch)
+				runnableDispatcher.dispatch( this );
+		}
+
+		public void start()
+		{
+			boolean dispatch = false;
+
+			synchronized (lock) {
+				if (running)
+					throw new IllegalThreadStateException( "RunnableManager already running" );
+
+				running = true;
+				dispatch = schedule();
+			}
+
+			if (dispatch)
+				runnableDispatcher.dispatch( this );
+		}
+
+		/** Stop; any Runnables already added are still run. */
+		public void stop()
+		{
+			boolean dispatch = false;
+
+			synchronized (lock) {
+				dispatch = running && schedule();
+				running = false;
+				lock.notifyAll();
+			}
+
+			if (dispatch)
+				runnableDispatcher.dispatch( this );
+		}
+
+		public void run()
+		{
+			try {
+				runPriority();
+
+				synchronized (lock) {
+					batch = queue.toArray( batch );
+					batchSize = queue.size();
+					queue.clear();
+					next.set( 0 );
+				}
+
+				int i = 0;
+
+				while ((i = next.getAndIncrement()) < batchSize) {
+					if (0 < prioritySize)
+						runPriority();
+
+					Runnable runnable = (Runnable)batch[i];
+					batch[i] = null;
+
+					/* A failing Runnable must not stop the later ones. */
+					inProgress = true;
+					try { runnable.run(); }
+					catch ( Throwable t ) { }
+					inProgress = false;
+
+					if (0 < waiters) {
+						synchronized (lock) {
+							lock.notifyAll();
+						}
+					}
+				}
+			} finally {
+				boolean dispatch = false;
+
+				/* This must be rescheduled even if this Thread is failing, or nothing more is ever run. */
+				synchronized (lock) {
+					inProgress = false;
+					batchSize = 0;
+					scheduled = false;
+					dispatch = schedule();
+				}
+
+				if (dispatch)
+					runnableDispatcher.dispatch( this );
+			}
+		}
+
+		public long getSize()
+		{
+			synchronized (lock) {
+				return queue.size() + Math.max( 0, batchSize - next.get() ) + (inProgress ? 1 : 0) + prioritySize;
+			}
+		}
+
+		/**
+		 * Discard the oldest Runnable that has not started.
+		 * <p>
+		 * Runnables already taken into the batch being run are older than those queued.
+		 * The caller must hold the lock.
+		 * @return If a Runnable was discarded.
+		 */
+		private boolean dropOldest()
+		{
+			int i = next.getAndIncrement();
+
+			if (i < batchSize) {
+				batch[i] = null;
+				return true;
+			}
+
+			if (queue.isEmpty())
+				return false;
+
+			queue.removeFirst();
+			return true;
+		}
+
+		/** Run all queued priority Runnables. */
+		private void runPriority()
+		{
+			List list = null;
+
+			synchronized (lock) {
+				if (priorityQueue.isEmpty())
+					return;
+
+				list = priorityQueue;
+				priorityQueue = priorityBatch;
+				priorityBatch = list;
+				prioritySize = 0;
+			}
+
+			try {
+				for (int i=0; i<list.size(); i++) {
+					/* A failing Runnable must not stop the later ones. */
+					try { ((Runnable)list.get(i)).run(); }
+					catch ( Throwable t ) { }
+				}
+			} finally {
+				list.clear();
+
+				if (0 < waiters) {
+					synchronized (lock) {
+						lock.notifyAll();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Wait until fewer than max Runnables are queued, or this is stopped.
+		 * <p>
+		 * The caller must hold the lock.
+		 * @param max The max size.
+		 */
+		private void waitForSpace( long max )
+		{
+			waiters++;
+
+			try {
+				while (running && getSize() >= max) {
+					try { lock.wait(); }
+					catch ( InterruptedException iE ) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			} finally {
+				waiters--;
+			}
+		}
+
+		/**
+		 * Mark this as scheduled, if it is not already and has Runnables.
+		 * @return If this should be dispatched.
+		 */
+		private boolean schedule()
+		{
+			if (scheduled || (queue.isEmpty() && priorityQueue.isEmpty()))
+				return false;
+
+			scheduled = true;
+			return true;
+		}
+
+		public volatile boolean running = false;
+
+		private Object lock = new Object();
+		private LinkedList queue = new LinkedList();
+		private Object[] batch = new Object[16];
+		private int batchSize = 0;
+		private AtomicInteger next = new AtomicInteger( 0 );
+		private volatile boolean inProgress = false;
+		private List priorityQueue = new ArrayList();
+		private List priorityBatch = new ArrayList();
+		private volatile int prioritySize = 0;
+		private boolean scheduled = false;
+		private volatile int waiters = 0;
+	}
+
+	//*************************************************************************
+	// Class constants
+
+	/** Start a new Thread when full; with a RunnableDispatcher, do not limit the queue. */
+	public static final int OVERFLOW_NEW_THREAD = 0;
+	/** Block the adding Thread until there is room. */
+	public static final int OVERFLOW_BLOCK = 1;
+	/** Discard the oldest queued Runnable. */
+	public static final int OVERFLOW_DROP_OLDEST = 2;
+	/** Discard the Runnable being added. */
+	public static final int OVERFLOW_DROP_NEWEST = 3;
+	/** Run the Runnable being added on the adding Thread. */
+	public static final int OVERFLOW_CALLER_RUNS = 4;
+
 }
@@ -0,0 +1,106 @@
+package com.ibm.jusb.util;
+
+/*
+ * Copyright (c) 1999 - 2001, International Business Machines Corporation.
+ * All Rights Reserved.
+ *
+ * This software is provided and licensed under the terms and conditions
+ * of the Common Public License:
+ * http://oss.software.ibm.com/developerworks/opensource/license-cpl.html
+ */
+
+import java.util.concurrent.*;
+
+/**
+ * RunnableDispatcher that runs each Runnable on a new virtual Thread.
+ * <p>
+ * Virtual Threads are only available on newer JVMs; they are located at runtime,
+ * so this class may be loaded on any JVM.  Use {@link #isAvailable() isAvailable}
+ * before using the {@link #getVirtualThreadDispatcher() dispatcher}.
+ * Since virtual Threads are cheap, there is no limit on the number of Threads
+ * and no Runnable is ever queued waiting for a Thread.
+ * @author Dan Streetman
+ */
+public class VirtualThreadDispatcher extends RunnableDispatcher
+{
+	/**
+	 * Constructor.
+	 * @param factory The ThreadFactory that creates virtual Threads.
+	 */
+	protected VirtualThreadDispatcher( ThreadFactory factory )
+	{
+		super( 1, "VirtualThreadDispatcher" );
+
+		threadFactory = factory;
+	}
+
+	//*************************************************************************
+	// Public methods
+
+	/**
+	 * Dispatch a Runnable.
+	 * <p>
+	 * The Runnable is run on a new virtual Thread.
+	 * @param runnable The Runnable.
+	 */
+	public void dispatch( Runnable runnable )
+	{
+		threadFactory.newThread( runnable ).start();
+	}
+
+	/** @return If virtual Threads are available. */
+	public static boolean isAvailable() { return null != virtualThreadDispatcher; }
+
+	/**
+	 * Get the VirtualThreadDispatcher.
+	 * @return The VirtualThreadDispatcher, or null if virtual Threads are not available.
+	 */
+	public static VirtualThreadDispatcher getVirtualThreadDispatcher() { return virtualThreadDispatcher; }
+
+	//*************************************************************************
+	// Private methods
+
+	/**
+	 * Create the VirtualThreadDispatcher.
+	 * @return The VirtualThreadDispatcher, or null if virtual Threads are not available.
+	 */
+	private static VirtualThreadDispatcher createVirtualThreadDispatcher()
+	{
+		try {
+			if (Boolean.getBoolean( DISABLED_PROPERTY ))
+				return null;
+
+			/* Thread.ofVirtual().name(...).factory() */
+			Object builder = Thread.class.getMethod( "ofVirtual", new Class[0] ).invoke( null, new Object[0] );
+			Class builderClass = Class.forName( "java.lang.Thread$Builder" );
+
+			builder = builderClass.getMethod( "name", new Class[] { String.class, long.class } )
+				.invoke( builder, new Object[] { "VirtualThreadDispatcher Thread ", Long.valueOf( 1 ) } );
+
+			ThreadFactory factory = (ThreadFactory)builderClass.getMethod( "factory", new Class[0] ).invoke( builder, new Object[0] );
+
+			return new VirtualThreadDispatcher( factory );
+		} catch ( Exception e ) {
+			return null;
+		} catch ( LinkageError lE ) {
+			return null;
+		}
+	}
+
+	//*************************************************************************
+	// Instance variables
+
+	private ThreadFactory threadFactory = null;
+
+	//*************************************************************************
+	// Class variables
+
+	private static VirtualThreadDispatcher virtualThreadDispatcher = createVirtualThreadDispatcher();
+
+	//*************************************************************************
+	// Class constants
+
+	/** The system property that, if "true", prevents using virtual Threads. */
+	public static final String DISABLED_PROPERTY = "com.ibm.jusb.util.VirtualThreadDispatcher.disabled";
+
+}